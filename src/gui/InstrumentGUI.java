@@ -3,15 +3,20 @@ package gui;
 import exceptions.UnrecognizedInstrumentException;
 import instruments.Instrument;
 import instruments.InstrumentFactory;
+import instruments.SoundLibrary;
 import logging.AssignmentLogger;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.List;
 import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
 import javax.swing.border.Border;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.LineUnavailableException;
@@ -22,7 +27,10 @@ import javax.sound.sampled.LineUnavailableException;
  * from ResourceBundles to support runtime language switching.
  */
 public class InstrumentGUI extends JFrame {
+    private static final int MAX_SUGGESTIONS = 5;
+
     private JTextField inputField;
+    private JPopupMenu suggestionMenu;
     private JButton searchButton;
     private JButton playButton;
     private JButton langButton;
@@ -34,6 +42,7 @@ public class InstrumentGUI extends JFrame {
     private ResourceBundle bundle = ResourceBundle.getBundle("internationalization.MessagesBundle", currentLocale);
 
     private Instrument currentInstrument = null;
+    private boolean namesLoaded = false; //Set on the EDT once InstrumentFactory.load() has run in the background
 
     // UI affordances
     private String placeholderText;
@@ -49,9 +58,39 @@ public class InstrumentGUI extends JFrame {
         super();
         initUI();
         wireActions();
+        loadNames();
         AssignmentLogger.logConstructor(this);
     }
 
+    /**
+     * Loads the instrument catalog and names on a background thread, so the
+     * first letter typed does not wait for them. Suggestions start once they
+     * are ready.
+     */
+    private void loadNames() {
+        AssignmentLogger.logMethodEntry(this);
+        SwingWorker<Void, Void> loader = new SwingWorker<>() {
+            @Override
+            protected Void doInBackground() {
+                InstrumentFactory.load();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    namesLoaded = true;
+                    updateSuggestions(); //For anything typed while they were loading
+                } catch (InterruptedException | ExecutionException e) {
+                    AssignmentLogger.logCatchException(e); //No suggestions; a search shows the error
+                }
+            }
+        };
+        loader.execute();
+        AssignmentLogger.logMethodExit(this);
+    }
+
     /**
      * Creates and arranges all Swing components.
      */
@@ -71,6 +110,9 @@ public class InstrumentGUI extends JFrame {
         defaultInputBorder = inputField.getBorder();
         placeholderText = computePlaceholder();
         activatePlaceholder();
+        // Type-ahead list under the field; it never takes the focus from the field
+        suggestionMenu = new JPopupMenu();
+        suggestionMenu.setFocusable(false);
         // Toggle placeholder on focus
         inputField.addFocusListener(new java.awt.event.FocusAdapter() {
             @Override public void focusGained(java.awt.event.FocusEvent e) {
@@ -84,6 +126,7 @@ public class InstrumentGUI extends JFrame {
             }
             @Override public void focusLost(java.awt.event.FocusEvent e) {
                 AssignmentLogger.logMethodEntry(this);
+                suggestionMenu.setVisible(false);
                 if (inputField.getText().trim().isEmpty()) {
                     activatePlaceholder();
                 }
@@ -142,6 +185,7 @@ public class InstrumentGUI extends JFrame {
         ActionListener searchAction = new SearchAction();
         searchButton.addActionListener(searchAction);
         inputField.addActionListener(searchAction);
+        inputField.getDocument().addDocumentListener(new SuggestionUpdater());
         playButton.addActionListener(new PlayAction());
         langButton.addActionListener(new ToggleLanguageAction());
         AssignmentLogger.logMethodExit(this);
@@ -155,6 +199,7 @@ public class InstrumentGUI extends JFrame {
     private void performSearch() {
         AssignmentLogger.logMethodEntry(this);
         clearError();
+        suggestionMenu.setVisible(false);
         descriptionLabel.setText(" ");
         imageLabel.setIcon(null);
         playButton.setEnabled(false);
@@ -194,6 +239,39 @@ public class InstrumentGUI extends JFrame {
         AssignmentLogger.logMethodExit(this);
     }
 
+    /**
+     * Lists the instrument names that start like the text typed so far, typos
+     * included, under the input field. Choosing one searches for it. The
+     * lookup takes microseconds, so it runs on the EDT as the user types;
+     * until the names have loaded there are no suggestions.
+     */
+    private void updateSuggestions() {
+        AssignmentLogger.logMethodEntry(this);
+        String text = inputField.getText().trim();
+        List<String> names = !namesLoaded || usingPlaceholder || !inputField.isShowing()
+                ? List.of() : InstrumentFactory.suggest(text, currentLocale, MAX_SUGGESTIONS);
+        if (names.isEmpty() || (names.size() == 1 && names.get(0).equalsIgnoreCase(text))) {
+            suggestionMenu.setVisible(false); //Nothing to offer beyond what is typed
+            AssignmentLogger.logMethodExit(this);
+            return;
+        }
+        suggestionMenu.removeAll();
+        for (String name : names) {
+            JMenuItem item = new JMenuItem(name);
+            item.addActionListener(e -> {
+                AssignmentLogger.logMethodEntry(this);
+                inputField.setText(name);
+                performSearch();
+                AssignmentLogger.logMethodExit(this);
+            });
+            suggestionMenu.add(item);
+        }
+        suggestionMenu.pack();
+        suggestionMenu.show(inputField, 0, inputField.getHeight());
+        inputField.requestFocusInWindow();
+        AssignmentLogger.logMethodExit(this);
+    }
+
     /**
      * Updates the image and localized description for the selected instrument.
      * Scaling preserves aspect ratio and fits the available preview area.
@@ -204,13 +282,12 @@ public class InstrumentGUI extends JFrame {
             AssignmentLogger.logMethodExit(this);
             return;
         }
-        String key = instrument.getClass().getSimpleName().toLowerCase(java.util.Locale.ROOT);
-        String descKey = "instrument." + key + ".desc";
+        String descKey = "instrument." + instrument.getKey() + ".desc";
         String desc;
         try {
             desc = bundle.getString(descKey);
         } catch (Exception __ignored) {
-            desc = instrument.getDescription();
+            desc = instrument.getDescription(currentLocale); //Catalog instruments carry their own descriptions
         }
         descriptionLabel.setText(desc);
 
@@ -324,6 +401,28 @@ public class InstrumentGUI extends JFrame {
         }
     }
 
+    private class SuggestionUpdater implements DocumentListener {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            AssignmentLogger.logMethodEntry(this);
+            updateSuggestions();
+            AssignmentLogger.logMethodExit(this);
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            AssignmentLogger.logMethodEntry(this);
+            updateSuggestions();
+            AssignmentLogger.logMethodExit(this);
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            AssignmentLogger.logMethodEntry(this);
+            AssignmentLogger.logMethodExit(this); //Attribute changes only; the text is the same
+        }
+    }
+
     private class PlayAction implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
@@ -375,19 +474,8 @@ public class InstrumentGUI extends JFrame {
 
     private boolean hasSoundFilesFor(Instrument instrument) {
         AssignmentLogger.logMethodEntry(this);
-        // soundPath is like "resources/sounds/Guitar"; take as stem
-        String stem = instrument.getSoundPath();
-        java.io.File dir = new java.io.File("resources/sounds");
-        String prefix;
-        if (stem != null && stem.contains("/")) {
-            prefix = stem.substring(stem.lastIndexOf('/') + 1);
-        } else if (stem != null && stem.contains("\\")) {
-            prefix = stem.substring(stem.lastIndexOf('\\') + 1);
-        } else {
-            prefix = stem != null ? stem : "";
-        }
-        java.io.File[] files = dir.listFiles((_, name) -> name.startsWith(prefix) && name.toLowerCase().endsWith(".wav"));
-        boolean ok = files != null && files.length > 0;
+        // soundPath is like "resources/sounds/Guitar"; the library reduces it to the stem
+        boolean ok = SoundLibrary.hasClipsFor(instrument.getSoundPath());
         AssignmentLogger.logMethodExit(this);
         return ok;
     }
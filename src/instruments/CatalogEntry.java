@@ -0,0 +1,187 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * One instrument in the {@link InstrumentCatalog}: its key, its name and
+ * description in each language, its image and its sound stem. Entries come
+ * from the catalog file or an {@link InstrumentProvider}; each is played
+ * through a {@link CatalogInstrument}.
+ */
+public final class CatalogEntry {
+    private final String key;
+    private final Map<String, String> names; //Language, e.g. "es", to name
+    private final Map<String, String> descriptions; //Language to description
+    private final String imagePath;
+    private final String soundPath;
+    private final Supplier<? extends Instrument> factory;
+    private final String stem; //Sound stem, e.g. "Violin", worked out once for preloading
+    private volatile Instrument shared = null; //Created on first use, then handed out to everyone
+    private volatile boolean preloaded = false; //Whether instance() has started preloading the sounds
+
+    /**
+     * Creates an entry played by a {@link CatalogInstrument}.
+     *
+     * @param key          unique key, also accepted as input, e.g. "violin"
+     * @param names        name by language tag, e.g. "en" to "Violin"; at
+     *                     least one
+     * @param descriptions description by language tag; may be empty
+     * @param imagePath    path to an image on disk
+     * @param soundPath    stem used to locate matching sound files, e.g.
+     *                     "resources/sounds/Violin"
+     */
+    public CatalogEntry(String key, Map<String, String> names, Map<String, String> descriptions, String imagePath, String soundPath) {
+        this(key, names, descriptions, imagePath, soundPath, null);
+    }
+
+    /**
+     * Creates an entry played by one of the built-in instrument classes.
+     *
+     * @param factory creates the instrument, or null for a
+     *                {@link CatalogInstrument}
+     */
+    CatalogEntry(String key, Map<String, String> names, Map<String, String> descriptions, String imagePath, String soundPath,
+                 Supplier<? extends Instrument> factory) {
+        AssignmentLogger.logConstructor(this);
+        if (key == null || key.isEmpty() || names.isEmpty()) {
+            throw new IllegalArgumentException("A catalog entry needs a key and at least one name: " + key);
+        }
+        this.key = key;
+        this.names = Collections.unmodifiableMap(new LinkedHashMap<>(names));
+        this.descriptions = Collections.unmodifiableMap(new LinkedHashMap<>(descriptions));
+        this.imagePath = imagePath;
+        this.soundPath = soundPath;
+        this.stem = SoundLibrary.stemOf(soundPath);
+        this.factory = factory != null ? factory : () -> new CatalogInstrument(this);
+    }
+
+    /**
+     * @return the unique key
+     */
+    public String getKey() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return key;
+    }
+
+    /**
+     * @return every name, by language tag
+     */
+    public Map<String, String> getNames() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return names;
+    }
+
+    /**
+     * @param locale the language wanted
+     * @return the name in that language, else in English, else the first
+     * name given
+     */
+    public String getName(Locale locale) {
+        AssignmentLogger.logMethodEntry(this);
+        String name = inLanguage(names, locale);
+        AssignmentLogger.logMethodExit(this);
+        return name;
+    }
+
+    /**
+     * @param locale the language wanted
+     * @return the description in that language, else in English, else the
+     * first one given, else the name
+     */
+    public String getDescription(Locale locale) {
+        AssignmentLogger.logMethodEntry(this);
+        String description = descriptions.isEmpty() ? getName(locale) : inLanguage(descriptions, locale);
+        AssignmentLogger.logMethodExit(this);
+        return description;
+    }
+
+    /**
+     * @return path to an image on disk
+     */
+    public String getImagePath() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return imagePath;
+    }
+
+    /**
+     * @return the sound stem used by the player utility
+     */
+    public String getSoundPath() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return soundPath;
+    }
+
+    /**
+     * Returns the one instrument shared by every lookup of this entry,
+     * creating it the first time. Instruments are immutable, so sharing it
+     * is safe. The first call also starts preloading the entry's sounds, so
+     * Play starts quickly; later calls do no more than read two fields.
+     *
+     * @return the shared instrument for this entry
+     */
+    Instrument instance() {
+        AssignmentLogger.logMethodEntry(this);
+        Instrument instrument = sharedInstance();
+        if (!preloaded) {
+            preloaded = true; //Two threads may both preload, which SampleCache ignores
+            SoundPlayer.preload(stem);
+        }
+        AssignmentLogger.logMethodExit(this);
+        return instrument;
+    }
+
+    /**
+     * Same as {@link #instance()}. Not logged: called for every name in a
+     * batch resolved by {@link InstrumentFactory#resolveAll(List, Locale)}.
+     */
+    Instrument sharedInstance() {
+        Instrument instrument = shared;
+        if (instrument == null) {
+            synchronized (this) {
+                instrument = shared;
+                if (instrument == null) {
+                    instrument = factory.get();
+                    shared = instrument;
+                }
+            }
+        }
+        return instrument;
+    }
+
+    /**
+     * @return a new instrument for this entry, not shared with anyone
+     */
+    Instrument create() {
+        AssignmentLogger.logMethodEntry(this);
+        Instrument instrument = factory.get();
+        AssignmentLogger.logMethodExit(this);
+        return instrument;
+    }
+
+    /**
+     * Picks the text for a language from a map of languages to texts
+     */
+    private static String inLanguage(Map<String, String> texts, Locale locale) {
+        AssignmentLogger.logStaticMethodEntry();
+        String text = locale == null ? null : texts.get(locale.getLanguage());
+        if (text == null) {
+            text = texts.get(Locale.ENGLISH.getLanguage());
+        }
+        if (text == null) {
+            text = texts.values().iterator().next();
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return text;
+    }
+}
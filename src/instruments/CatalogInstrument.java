@@ -0,0 +1,64 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import java.util.Locale;
+
+/**
+ * An instrument described by a {@link CatalogEntry} rather than a class of
+ * its own. Plays a random clip of the entry's sound stem via the shared
+ * {@link SoundPlayer}.
+ */
+public final class CatalogInstrument extends Instrument {
+    private final CatalogEntry entry;
+
+    /**
+     * Creates an instrument with the entry's key, paths, and English name
+     * and description.
+     *
+     * @param entry the catalog entry
+     */
+    public CatalogInstrument(CatalogEntry entry) {
+        super(
+            entry.getKey(),
+            entry.getName(Locale.ENGLISH),
+            entry.getDescription(Locale.ENGLISH),
+            entry.getImagePath(),
+            entry.getSoundPath()
+        );
+        this.entry = entry;
+        AssignmentLogger.logConstructor(this); //After entry is set, so the logged details include it
+    }
+
+    /**
+     * @return the catalog entry this instrument was made from
+     */
+    public CatalogEntry getEntry() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return entry;
+    }
+
+    /**
+     * @param locale the language wanted
+     * @return the entry's description in that language, else in English
+     */
+    @Override
+    public String getDescription(Locale locale) {
+        AssignmentLogger.logMethodEntry(this);
+        String description = entry.getDescription(locale);
+        AssignmentLogger.logMethodExit(this);
+        return description;
+    }
+
+    /**
+     * Triggers playback of a random clip of the entry's sound stem.
+     * Non-blocking.
+     */
+    @Override
+    public void playSound() {
+        AssignmentLogger.logMethodEntry(this);
+        SoundPlayer.playRandomClipByStem(SoundLibrary.stemOf(getSoundPath()));
+        AssignmentLogger.logMethodExit(this);
+    }
+}
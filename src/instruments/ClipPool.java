@@ -0,0 +1,249 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.LineUnavailableException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A bounded set of open {@link Clip} lines that are reused between plays
+ * instead of opening a new line every time and never closing it.
+ *
+ * A clip is checked out when a sample starts and handed back by a
+ * {@link LineListener} when it stops. Idle clips stay open, grouped by audio
+ * format, so playing the same sample again only rewinds it and a new sample
+ * of the same format reuses the clip object. When every clip is busy and the
+ * limit is reached, the clip that has been playing longest is cut off and
+ * reused, so the number of lines never grows past the limit.
+ */
+class ClipPool {
+    static final int DEFAULT_MAX_CLIPS = 8;
+
+    /**
+     * A clip owned by the pool and the sample it currently holds
+     */
+    private static final class PooledClip {
+        final Clip clip;
+        Sample loaded;
+        LineListener release; //Listener for the current play, null while idle
+
+        PooledClip(Clip clip) {
+            this.clip = clip;
+        }
+    }
+
+    /**
+     * Hands a clip back to the pool when the play it was added for stops
+     */
+    private final class Release implements LineListener {
+        private final PooledClip pooled;
+
+        Release(PooledClip pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void update(LineEvent event) {
+            if (event.getType() == LineEvent.Type.STOP) {
+                checkIn(pooled, this);
+            }
+        }
+    }
+
+    private final int maxClips;
+    private final Map<String, Deque<PooledClip>> idleByFormat = new HashMap<>(); //Least recently used first
+    private final Deque<PooledClip> busy = new ArrayDeque<>(); //Oldest play first
+    private int open = 0;
+
+    /**
+     * @param maxClips the most clip lines to keep open at once
+     */
+    ClipPool(int maxClips) {
+        AssignmentLogger.logConstructor(this);
+        this.maxClips = Math.max(1, maxClips);
+    }
+
+    /**
+     * Starts playing a sample on a pooled clip. Returns immediately.
+     *
+     * @param sample the decoded sample to play
+     * @throws LineUnavailableException if no clip line can be opened
+     */
+    synchronized void play(Sample sample) throws LineUnavailableException {
+        AssignmentLogger.logMethodEntry(this);
+        try {
+            PooledClip pooled = checkOut(sample);
+            applyGain(pooled.clip, sample.gain);
+            Release release = new Release(pooled);
+            pooled.release = release;
+            pooled.clip.addLineListener(release);
+            busy.addLast(pooled);
+            pooled.clip.start();
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * @return the number of clip lines currently open
+     */
+    synchronized int openClips() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return open;
+    }
+
+    /**
+     * @return the number of clips currently playing
+     */
+    synchronized int busyClips() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return busy.size();
+    }
+
+    /**
+     * Closes every idle clip. Busy clips are closed when they stop.
+     */
+    synchronized void closeIdle() {
+        AssignmentLogger.logMethodEntry(this);
+        for (Deque<PooledClip> idle : idleByFormat.values()) {
+            for (PooledClip pooled : idle) {
+                pooled.clip.close();
+                open--;
+            }
+            idle.clear();
+        }
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * Opens a new, unopened clip line. Overridden in tests.
+     */
+    Clip newClip() throws LineUnavailableException {
+        AssignmentLogger.logMethodEntry(this);
+        try {
+            return AudioSystem.getClip();
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * Finds a clip for the sample, best choice first: an idle clip already
+     * holding it, an idle clip of the same format, a new clip, an idle clip
+     * of another format, and finally the longest playing busy clip.
+     */
+    private PooledClip checkOut(Sample sample) throws LineUnavailableException {
+        AssignmentLogger.logMethodEntry(this);
+        try {
+            Deque<PooledClip> idle = idleByFormat.get(formatKey(sample.format));
+            if (idle != null) {
+                for (Iterator<PooledClip> it = idle.iterator(); it.hasNext();) {
+                    PooledClip pooled = it.next();
+                    if (pooled.loaded == sample) {
+                        it.remove();
+                        pooled.clip.setFramePosition(0);
+                        return pooled;
+                    }
+                }
+                if (!idle.isEmpty()) {
+                    return load(idle.pollFirst(), sample);
+                }
+            }
+            if (open < maxClips) {
+                PooledClip pooled = new PooledClip(newClip());
+                open++;
+                return load(pooled, sample);
+            }
+            for (Deque<PooledClip> other : idleByFormat.values()) {
+                if (!other.isEmpty()) {
+                    return load(other.pollFirst(), sample);
+                }
+            }
+            PooledClip oldest = busy.pollFirst(); //Never empty here: every open clip is idle or busy
+            oldest.clip.removeLineListener(oldest.release);
+            oldest.release = null;
+            oldest.clip.stop();
+            oldest.clip.flush();
+            if (oldest.loaded == sample) {
+                oldest.clip.setFramePosition(0);
+                return oldest;
+            }
+            return load(oldest, sample);
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * Puts a new sample into a clip. A clip's data can only be replaced by
+     * closing and opening it again, but the clip object itself is kept.
+     */
+    private PooledClip load(PooledClip pooled, Sample sample) throws LineUnavailableException {
+        AssignmentLogger.logMethodEntry(this);
+        try {
+            if (pooled.clip.isOpen()) {
+                pooled.clip.close();
+            }
+            pooled.loaded = null;
+            byte[] bytes = sample.bytes();
+            pooled.clip.open(sample.format, bytes, 0, bytes.length);
+            pooled.loaded = sample;
+            return pooled;
+        } catch (LineUnavailableException | RuntimeException e) {
+            open--; //The clip is dropped from the pool
+            throw e;
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * Sets a clip's volume to a sample's gain from the {@link LoudnessIndex},
+     * if the line has a gain control
+     */
+    private void applyGain(Clip clip, float gain) {
+        AssignmentLogger.logMethodEntry(this);
+        if (clip.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
+            FloatControl control = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
+            float db = (float) (20 * Math.log10(gain));
+            control.setValue(Math.max(control.getMinimum(), Math.min(control.getMaximum(), db)));
+        }
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * Moves a clip from busy to idle, unless it has already been reused for
+     * another play since this listener was added
+     */
+    private synchronized void checkIn(PooledClip pooled, LineListener release) {
+        AssignmentLogger.logMethodEntry(this);
+        if (pooled.release == release) {
+            pooled.clip.removeLineListener(release);
+            pooled.release = null;
+            busy.remove(pooled);
+            idleByFormat.computeIfAbsent(formatKey(pooled.loaded.format), k -> new ArrayDeque<>()).addLast(pooled);
+        }
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * AudioFormat has no equals(), so formats are grouped by description
+     */
+    private static String formatKey(AudioFormat format) {
+        AssignmentLogger.logStaticMethodEntry();
+        AssignmentLogger.logStaticMethodExit();
+        return format.toString();
+    }
+}
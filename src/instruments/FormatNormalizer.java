@@ -0,0 +1,146 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Converts samples once, when they are loaded, into the format the mixer
+ * plays ({@link MixBus#FORMAT}: 44.1 kHz, 16-bit, stereo), so nothing is
+ * converted or resampled while sounds play. Other sample rates are resampled,
+ * mono is copied to both channels, extra channels are dropped and other bit
+ * depths and encodings are converted, all with Java Sound's converters.
+ * Samples already in the mixer format are returned as they are, so mapped
+ * files stay mapped.
+ *
+ * Converted audio can also be kept on disk: with
+ * -Dsound.normalized.dir=&lt;directory&gt; each converted file is saved there as
+ * a WAV in the mixer format and mapped straight from there next time. The
+ * saved copy is keyed on the source file's name, size and modification time,
+ * so editing a sound makes it convert again.
+ */
+final class FormatNormalizer {
+    private static final String CACHE_DIR = System.getProperty("sound.normalized.dir");
+
+    private FormatNormalizer() {
+    }
+
+    /**
+     * Whether a format is exactly the mixer format, so a sample in it needs
+     * no conversion
+     *
+     * @param format the format to check
+     * @return true if it is 44.1 kHz 16-bit stereo signed little-endian PCM
+     */
+    static boolean isCanonical(AudioFormat format) {
+        AssignmentLogger.logStaticMethodEntry();
+        AssignmentLogger.logStaticMethodExit();
+        return MixBus.accepts(format) && format.getChannels() == MixBus.FORMAT.getChannels();
+    }
+
+    /**
+     * Returns a sample's audio in the mixer format, converting it if needed.
+     *
+     * @param sample a decoded sample in any PCM format
+     * @return the sample itself if it is already in the mixer format,
+     * otherwise a converted copy for the same file
+     * @throws UnsupportedAudioFileException if Java Sound cannot convert the
+     *                                       sample's format
+     * @throws IOException                   if the conversion fails
+     */
+    static Sample normalize(Sample sample) throws UnsupportedAudioFileException, IOException {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            if (isCanonical(sample.format)) {
+                return sample;
+            }
+            File saved = CACHE_DIR == null ? null : savedCopyOf(sample.file);
+            if (saved != null && saved.isFile()) {
+                try {
+                    Sample cached = WavFile.map(saved);
+                    if (isCanonical(cached.format)) {
+                        return new Sample(sample.file, cached.format, cached.data);
+                    }
+                } catch (IOException e) {
+                    AssignmentLogger.logCatchException(e); //Damaged copy, convert again and replace it
+                }
+            }
+            Sample converted = convert(sample);
+            if (saved != null) {
+                try {
+                    save(converted, saved);
+                } catch (IOException e) {
+                    AssignmentLogger.logCatchException(e); //The converted sample is still usable
+                }
+            }
+            return converted;
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Runs a sample through Java Sound's format converters
+     */
+    private static Sample convert(Sample sample) throws UnsupportedAudioFileException, IOException {
+        AssignmentLogger.logStaticMethodEntry();
+        AudioInputStream source = new AudioInputStream(new ByteArrayInputStream(sample.bytes()), sample.format, sample.frames);
+        try (AudioInputStream converted = AudioSystem.getAudioInputStream(MixBus.FORMAT, source)) {
+            byte[] pcm = converted.readAllBytes();
+            // The resampler can pad a few frames past the end; keep exactly the source duration
+            long frames = Math.round(sample.frames * (double) MixBus.FORMAT.getSampleRate() / sample.format.getSampleRate());
+            int length = (int) Math.min(Integer.MAX_VALUE - 8, frames * MixBus.FORMAT.getFrameSize());
+            return new Sample(sample.file, MixBus.FORMAT, length == pcm.length ? pcm : Arrays.copyOf(pcm, length));
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedAudioFileException(sample.file + " is " + sample.format + ", which cannot be converted to " + MixBus.FORMAT);
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * @return where the converted copy of a file is kept in the disk cache
+     */
+    private static File savedCopyOf(File file) {
+        AssignmentLogger.logStaticMethodEntry();
+        AssignmentLogger.logStaticMethodExit();
+        return new File(CACHE_DIR, file.getName() + "-" + file.length() + "-" + file.lastModified() + ".wav");
+    }
+
+    /**
+     * Writes a converted sample to the disk cache. The file is written under
+     * a temporary name and then moved into place, so a reader never maps a
+     * half-written copy.
+     */
+    private static void save(Sample sample, File target) throws IOException {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            Path dir = Files.createDirectories(target.toPath().getParent());
+            Path temp = Files.createTempFile(dir, target.getName(), ".tmp");
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+                    byte[] pcm = sample.bytes();
+                    WavFile.writeHeader(out, sample.format, pcm.length);
+                    out.write(pcm);
+                }
+                Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+}
@@ -2,16 +2,22 @@ package instruments;
 
 import logging.AssignmentLogger;
 
+import java.util.Locale;
+
 /**
  * Base type for musical instruments used by the app. Each concrete
  * implementation supplies a human-friendly name, description, an image path
  * and a sound stem, and implements how its sound is played.
+ *
+ * Instruments never change once created, so {@link InstrumentFactory} hands
+ * out one shared instance per catalog entry.
  */
 public abstract class Instrument {
-    private String name;
-    private String description;
-    private String imagePath;
-    private String soundPath;
+    private final String key;
+    private final String name;
+    private final String description;
+    private final String imagePath;
+    private final String soundPath;
 
     /**
      * Creates a new instrument.
@@ -22,7 +28,22 @@ public abstract class Instrument {
      * @param soundPath   stem used to locate matching sound files
      */
     public Instrument(String name, String description, String imagePath, String soundPath) {
+        this(null, name, description, imagePath, soundPath);
+    }
+
+    /**
+     * Creates a new instrument with an explicit key.
+     *
+     * @param key         key in the {@link InstrumentCatalog}, or null for
+     *                    the class name in lower case
+     * @param name        display name of the instrument
+     * @param description short description shown in the UI
+     * @param imagePath   path to an image on disk
+     * @param soundPath   stem used to locate matching sound files
+     */
+    public Instrument(String key, String name, String description, String imagePath, String soundPath) {
         AssignmentLogger.logConstructor(this);
+        this.key = key != null ? key : getClass().getSimpleName().toLowerCase(Locale.ROOT);
         this.name = name;
         this.description = description;
         this.imagePath = imagePath;
@@ -35,6 +56,15 @@ public abstract class Instrument {
      */
     public abstract void playSound();
 
+    /**
+     * @return the key in the {@link InstrumentCatalog}, e.g. "guitar"
+     */
+    public String getKey() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return key;
+    }
+
     /**
      * @return the display name
      */
@@ -53,6 +83,17 @@ public abstract class Instrument {
         return description;
     }
 
+    /**
+     * @param locale the language wanted
+     * @return the description in that language if the instrument has one,
+     * else {@link #getDescription()}
+     */
+    public String getDescription(Locale locale) {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return getDescription();
+    }
+
     /**
      * @return the relative/absolute image path used by the GUI
      */
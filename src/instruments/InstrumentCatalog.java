@@ -0,0 +1,272 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ResourceBundle;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Every instrument the app knows, by key. The built-in guitar, piano and
+ * drum come first, with their names from the i18n bundles; then the entries
+ * of the catalog file ({@value #DEFAULT_FILE}, or the file named by
+ * -Dinstruments.catalog); then those of any {@link InstrumentProvider}.
+ *
+ * The catalog file is a properties file in UTF-8 with these keys for each
+ * instrument, where the key is a word without dots:
+ * <pre>
+ * cello.name.en=Cello
+ * cello.name.es=Violonchelo
+ * cello.description.en=A large bowed string instrument.
+ * cello.image=resources/images/cello.jpg
+ * cello.sound=resources/sounds/Cello
+ * </pre>
+ * Names in several languages that differ only in case or accents are
+ * suggested as the first, in the order of the language tags.
+ *
+ * Nothing is read until the catalog is first used, so startup does not
+ * depend on its size. After that, finding an entry by key is a hash lookup.
+ */
+public final class InstrumentCatalog {
+    static final String DEFAULT_FILE = "resources/catalog.properties";
+
+    /**
+     * The locales whose bundle labels name the built-in instruments
+     */
+    static final Locale[] LOCALES = {Locale.ENGLISH, Locale.forLanguageTag("es")};
+
+    private static final String[] BUILT_IN_KEYS = {"guitar", "piano", "drum"};
+    private static final List<Supplier<? extends Instrument>> BUILT_IN = List.of(Guitar::new, Piano::new, Drum::new);
+
+    private static volatile InstrumentCatalog loaded = null; //Replaced whole, never changed
+
+    private final Map<String, CatalogEntry> byKey;
+
+    private InstrumentCatalog(Map<String, CatalogEntry> byKey) {
+        AssignmentLogger.logConstructor(this);
+        this.byKey = Collections.unmodifiableMap(byKey);
+    }
+
+    /**
+     * @param key an instrument key, e.g. "guitar"
+     * @return its entry, or null if there is none
+     */
+    public static CatalogEntry entry(String key) {
+        AssignmentLogger.logStaticMethodEntry();
+        CatalogEntry entry = get().byKey.get(key);
+        AssignmentLogger.logStaticMethodExit();
+        return entry;
+    }
+
+    /**
+     * @return every entry, built-in ones first, in the order they were read
+     */
+    public static Collection<CatalogEntry> entries() {
+        AssignmentLogger.logStaticMethodEntry();
+        Collection<CatalogEntry> entries = get().byKey.values();
+        AssignmentLogger.logStaticMethodExit();
+        return entries;
+    }
+
+    /**
+     * Reads the bundles, the catalog file and the providers again into a
+     * new catalog, without using it yet; see {@link #publish(InstrumentCatalog)}.
+     *
+     * @return the new catalog
+     * @throws java.util.MissingResourceException if a bundle or label is
+     *                                            missing
+     */
+    static InstrumentCatalog reread() {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            return load();
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Makes a catalog from {@link #reread()} the one every caller sees.
+     * Callers already holding entries keep them.
+     *
+     * @param catalog the new catalog
+     */
+    static void publish(InstrumentCatalog catalog) {
+        AssignmentLogger.logStaticMethodEntry();
+        synchronized (InstrumentCatalog.class) {
+            loaded = catalog;
+        }
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * @return every entry of this catalog, whether or not it is the one in
+     * use
+     */
+    Collection<CatalogEntry> all() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return byKey.values();
+    }
+
+    /**
+     * Returns the catalog, loading it on first use
+     */
+    private static InstrumentCatalog get() {
+        AssignmentLogger.logStaticMethodEntry();
+        InstrumentCatalog catalog = loaded;
+        if (catalog == null) {
+            synchronized (InstrumentCatalog.class) {
+                catalog = loaded;
+                if (catalog == null) {
+                    catalog = load();
+                    loaded = catalog;
+                }
+            }
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return catalog;
+    }
+
+    /**
+     * Reads every source in order. An entry whose key is already taken is
+     * skipped.
+     */
+    private static InstrumentCatalog load() {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            Map<String, CatalogEntry> byKey = new LinkedHashMap<>();
+            for (CatalogEntry entry : builtIn()) {
+                byKey.put(entry.getKey(), entry);
+            }
+            Path file = Paths.get(System.getProperty("instruments.catalog", DEFAULT_FILE));
+            for (CatalogEntry entry : readFile(file)) {
+                addNew(byKey, entry, file.toString());
+            }
+            try {
+                for (InstrumentProvider provider : ServiceLoader.load(InstrumentProvider.class)) {
+                    for (CatalogEntry entry : provider.entries()) {
+                        addNew(byKey, entry, provider.getClass().getName());
+                    }
+                }
+            } catch (ServiceConfigurationError e) {
+                AssignmentLogger.logMessage("Stopped loading instrument providers: %s", e); //Keep what was found before the broken one
+            }
+            return new InstrumentCatalog(byKey);
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Adds an entry unless its key is taken
+     */
+    private static void addNew(Map<String, CatalogEntry> byKey, CatalogEntry entry, String source) {
+        AssignmentLogger.logStaticMethodEntry();
+        if (byKey.putIfAbsent(entry.getKey(), entry) != null) {
+            AssignmentLogger.logMessage("Skipped duplicate instrument %s from %s", entry.getKey(), source);
+        }
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * The guitar, piano and drum, named in every bundle locale
+     *
+     * @throws java.util.MissingResourceException if a bundle or label is missing
+     */
+    private static List<CatalogEntry> builtIn() {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            List<Map<String, String>> names = new ArrayList<>();
+            List<Map<String, String>> descriptions = new ArrayList<>();
+            for (int k = 0; k < BUILT_IN_KEYS.length; k++) {
+                names.add(new LinkedHashMap<>());
+                descriptions.add(new LinkedHashMap<>());
+            }
+            for (Locale locale : LOCALES) {
+                ResourceBundle bundle = ResourceBundle.getBundle("internationalization.MessagesBundle", locale);
+                for (int k = 0; k < BUILT_IN_KEYS.length; k++) {
+                    names.get(k).put(locale.getLanguage(), bundle.getString("instrument." + BUILT_IN_KEYS[k]).trim());
+                    descriptions.get(k).put(locale.getLanguage(), bundle.getString("instrument." + BUILT_IN_KEYS[k] + ".desc"));
+                }
+            }
+            List<CatalogEntry> entries = new ArrayList<>();
+            for (int k = 0; k < BUILT_IN_KEYS.length; k++) {
+                String key = BUILT_IN_KEYS[k];
+                String stem = Character.toUpperCase(key.charAt(0)) + key.substring(1);
+                entries.add(new CatalogEntry(key, names.get(k), descriptions.get(k), "resources/images/" + key + ".jpg",
+                        "resources/sounds/" + stem, BUILT_IN.get(k)));
+            }
+            return entries;
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Reads the entries of a catalog file. A missing file has no entries; an
+     * entry without a name, image or sound is skipped.
+     */
+    static List<CatalogEntry> readFile(Path file) {
+        AssignmentLogger.logStaticMethodEntry();
+        List<CatalogEntry> entries = new ArrayList<>();
+        if (!Files.isRegularFile(file)) {
+            AssignmentLogger.logStaticMethodExit();
+            return entries;
+        }
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            AssignmentLogger.logCatchException(e);
+            AssignmentLogger.logStaticMethodExit();
+            return entries;
+        }
+
+        Map<String, Map<String, String>> names = new HashMap<>();
+        Map<String, Map<String, String>> descriptions = new HashMap<>();
+        TreeSet<String> keys = new TreeSet<>();
+        for (String property : new TreeSet<>(properties.stringPropertyNames())) { //Sorted, so languages keep one order
+            int dot = property.indexOf('.');
+            if (dot <= 0) {
+                continue;
+            }
+            String key = property.substring(0, dot);
+            keys.add(key);
+            String field = property.substring(dot + 1);
+            if (field.startsWith("name.")) {
+                names.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(field.substring(5), properties.getProperty(property).trim());
+            } else if (field.startsWith("description.")) {
+                descriptions.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(field.substring(12), properties.getProperty(property).trim());
+            }
+        }
+        for (String key : keys) {
+            String image = properties.getProperty(key + ".image");
+            String sound = properties.getProperty(key + ".sound");
+            if (!names.containsKey(key) || image == null || sound == null) {
+                AssignmentLogger.logMessage("Skipped instrument %s in %s: it needs a name, an image and a sound", key, file);
+                continue;
+            }
+            entries.add(new CatalogEntry(key, names.get(key), descriptions.getOrDefault(key, Map.of()), image.trim(), sound.trim()));
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return entries;
+    }
+}
@@ -3,76 +3,300 @@ package instruments;
 import exceptions.UnrecognizedInstrumentException;
 import logging.AssignmentLogger;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
 
 /**
  * Factory that converts free-text input (English or Spanish) into a concrete
- * {@link Instrument} instance. It relies on the i18n bundles to resolve the
- * localized names and also accepts raw keys like "guitar".
+ * {@link Instrument} instance. It accepts the name of any
+ * {@link InstrumentCatalog} entry in any of its languages, and raw keys like
+ * "guitar".
+ *
+ * The names are read from the catalog once, when the class is first used,
+ * into an immutable {@link NameIndex} that all threads share, and into a
+ * {@link NameTrie} for {@link #suggest(String, Locale, int)}. Call
+ * {@link #reloadNames()} after editing the bundles or the catalog.
+ *
+ * Instruments are immutable, so {@link #fromInput(String, Locale)} returns
+ * the same instance every time a name is looked up; repeated searches create
+ * nothing. {@link #newInstance(String, Locale)} creates a separate one.
+ *
+ * Large batches of names, such as an imported playlist, go through
+ * {@link #resolveAll(List, Locale)}, which resolves them in parallel and
+ * logs only the start and end of the batch.
  */
 public class InstrumentFactory {
+    private static final int BATCH_SLICE = 1_024; //Names one task resolves before it stops splitting
+
+    private static volatile NameIndex names = NameIndex.build(InstrumentCatalog.entries()); //Replaced whole, never changed
+    private static volatile NameTrie suggestions = NameTrie.build(InstrumentCatalog.entries()); //Likewise
+
+    /**
+     * The outcome of {@link #resolveAll(List, Locale)}: for each input, in
+     * order, either its instrument or why it could not be resolved. Not
+     * logged: read once per input, however large the batch.
+     */
+    public static final class BatchResult {
+        private final List<String> inputs;
+        private final Instrument[] instruments;
+        private final String[] errors;
+        private final int failures;
+
+        private BatchResult(List<String> inputs, Instrument[] instruments, String[] errors) {
+            this.inputs = inputs;
+            this.instruments = instruments;
+            this.errors = errors;
+            int failed = 0;
+            for (String error : errors) {
+                if (error != null) {
+                    failed++;
+                }
+            }
+            this.failures = failed;
+        }
+
+        /**
+         * @return how many inputs there were
+         */
+        public int size() {
+            return instruments.length;
+        }
+
+        /**
+         * @param index position in the inputs
+         * @return the input at that position, as given
+         */
+        public String input(int index) {
+            return inputs.get(index);
+        }
+
+        /**
+         * @param index position in the inputs
+         * @return the shared instance of its instrument, or null if it
+         * could not be resolved
+         */
+        public Instrument instrument(int index) {
+            return instruments[index];
+        }
+
+        /**
+         * @param index position in the inputs
+         * @return why it could not be resolved, or null if it was
+         */
+        public String error(int index) {
+            return errors[index];
+        }
+
+        /**
+         * @return how many inputs could not be resolved
+         */
+        public int failures() {
+            return failures;
+        }
+    }
+
     /**
-     * Parses the user input and returns the corresponding instrument.
+     * Resolves a range of a batch, splitting it in half until each task has
+     * at most {@link #BATCH_SLICE} names. Not logged, like the lookups it
+     * makes.
+     */
+    @SuppressWarnings("serial") //Batch tasks live only for one resolveAll call
+    private static final class ResolveTask extends RecursiveAction {
+        private final NameIndex index;
+        private final List<String> inputs;
+        private final Instrument[] instruments;
+        private final String[] errors;
+        private final int from;
+        private final int to;
+
+        ResolveTask(NameIndex index, List<String> inputs, Instrument[] instruments, String[] errors, int from, int to) {
+            this.index = index;
+            this.inputs = inputs;
+            this.instruments = instruments;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SLICE) {
+                for (int i = from; i < to; i++) {
+                    String input = inputs.get(i);
+                    CatalogEntry entry = input == null ? null : index.find(input);
+                    if (entry != null) {
+                        instruments[i] = entry.sharedInstance();
+                    } else {
+                        errors[i] = input == null ? "Null input" : "Instrument not recognized: " + input;
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ResolveTask(index, inputs, instruments, errors, from, middle),
+                    new ResolveTask(index, inputs, instruments, errors, middle, to));
+        }
+    }
+
+    /**
+     * Parses the user input and returns the corresponding instrument. The
+     * name may be in any supported language, whatever the locale, and case
+     * and surrounding whitespace are ignored.
      *
      * @param rawInput user-entered instrument name
-     * @param locale   locale used to normalize case and match i18n labels
-     * @return the matching instrument instance
+     * @param locale   locale of the user interface; every supported
+     *                 language is matched regardless
+     * @return the shared instance of the matching instrument; the same
+     * object for every lookup of it until {@link #reloadNames()}
      * @throws UnrecognizedInstrumentException when the input cannot be mapped
      */
     public static Instrument fromInput(String rawInput, Locale locale) throws UnrecognizedInstrumentException {
         AssignmentLogger.logStaticMethodEntry();
-        if (rawInput == null) {
+        try {
+            return lookup(rawInput).instance(); //Also preloads its sounds the first time
+        } finally {
             AssignmentLogger.logStaticMethodExit();
-            throw new UnrecognizedInstrumentException("Null input");
         }
+    }
 
-        String input = rawInput.trim().toLowerCase(locale == null ? Locale.getDefault() : locale);
-
-        Map<String, String> nameToKey = new HashMap<>();
-
-        // English names
-        ResourceBundle en = ResourceBundle.getBundle("internationalization.MessagesBundle", Locale.ENGLISH);
-        nameToKey.put(en.getString("instrument.guitar").toLowerCase(Locale.ENGLISH), "guitar");
-        nameToKey.put(en.getString("instrument.piano").toLowerCase(Locale.ENGLISH), "piano");
-        nameToKey.put(en.getString("instrument.drum").toLowerCase(Locale.ENGLISH), "drum");
+    /**
+     * Like {@link #fromInput(String, Locale)}, but creates a new instrument
+     * instead of returning the shared one.
+     *
+     * @param rawInput user-entered instrument name
+     * @param locale   locale of the user interface; every supported
+     *                 language is matched regardless
+     * @return a new instance of the matching instrument
+     * @throws UnrecognizedInstrumentException when the input cannot be mapped
+     */
+    public static Instrument newInstance(String rawInput, Locale locale) throws UnrecognizedInstrumentException {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            return lookup(rawInput).create();
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
 
-        // Spanish names
-        ResourceBundle es = ResourceBundle.getBundle("internationalization.MessagesBundle", Locale.forLanguageTag("es"));
-        nameToKey.put(es.getString("instrument.guitar").toLowerCase(Locale.forLanguageTag("es")), "guitar");
-        nameToKey.put(es.getString("instrument.piano").toLowerCase(Locale.forLanguageTag("es")), "piano");
-        nameToKey.put(es.getString("instrument.drum").toLowerCase(Locale.forLanguageTag("es")), "drum");
+    /**
+     * Resolves many names at once, in parallel on the common fork-join
+     * pool, as {@link #fromInput(String, Locale)} would one by one. Nothing
+     * is thrown for names that cannot be resolved: the result says why for
+     * each. Only the start and end of the batch are logged, and sounds are
+     * not preloaded.
+     *
+     * @param rawInputs user-entered instrument names; null elements are
+     *                  reported as errors
+     * @param locale    locale of the user interface; every supported
+     *                  language is matched regardless
+     * @return the instrument or error of each name, in the same order
+     */
+    public static BatchResult resolveAll(List<String> rawInputs, Locale locale) {
+        AssignmentLogger.logStaticMethodEntry();
+        List<String> inputs = Collections.unmodifiableList(new ArrayList<>(rawInputs)); //A snapshot with random access for the tasks
+        Instrument[] instruments = new Instrument[inputs.size()];
+        String[] errors = new String[inputs.size()];
+        ForkJoinPool.commonPool().invoke(new ResolveTask(names, inputs, instruments, errors, 0, inputs.size()));
+        BatchResult result = new BatchResult(inputs, instruments, errors);
+        AssignmentLogger.logStaticMethodExit();
+        return result;
+    }
 
-        // Raw keys
-        nameToKey.put("guitar", "guitar");
-        nameToKey.put("piano", "piano");
-        nameToKey.put("drum", "drum");
+    /**
+     * Same as {@link #resolveAll(List, Locale)} for a stream of names, which
+     * is read to the end first.
+     *
+     * @param rawInputs user-entered instrument names
+     * @param locale    locale of the user interface
+     * @return the instrument or error of each name, in encounter order
+     */
+    public static BatchResult resolveAll(Stream<String> rawInputs, Locale locale) {
+        AssignmentLogger.logStaticMethodEntry();
+        BatchResult result = resolveAll(rawInputs.toList(), locale);
+        AssignmentLogger.logStaticMethodExit();
+        return result;
+    }
 
-        String key = nameToKey.get(input);
-        if (key == null) {
+    /**
+     * Finds the catalog entry named by the input
+     *
+     * @throws UnrecognizedInstrumentException when the input cannot be mapped
+     */
+    private static CatalogEntry lookup(String rawInput) throws UnrecognizedInstrumentException {
+        AssignmentLogger.logStaticMethodEntry();
+        if (rawInput == null) {
             AssignmentLogger.logStaticMethodExit();
-            throw new UnrecognizedInstrumentException("Instrument not recognized: " + rawInput);
+            throw new UnrecognizedInstrumentException("Null input");
         }
-
-        Instrument result;
-        switch (key) {
-            case "guitar":
-                result = new Guitar();
-                break;
-            case "piano":
-                result = new Piano();
-                break;
-            case "drum":
-                result = new Drum();
-                break;
-            default:
-                AssignmentLogger.logStaticMethodExit();
-                throw new UnrecognizedInstrumentException("Instrument key not recognized: " + key);
+        CatalogEntry entry = names.find(rawInput);
+        if (entry == null) {
+            AssignmentLogger.logStaticMethodExit();
+            throw new UnrecognizedInstrumentException("Instrument not recognized: " + rawInput);
         }
+        AssignmentLogger.logStaticMethodExit();
+        return entry;
+    }
 
+    /**
+     * Suggests instrument names for partial or misspelled input, for
+     * type-ahead. A name is suggested if the input is the start of it, give
+     * or take a typo or two (none for 1 or 2 letters, one up to 5 letters,
+     * two beyond). Any suggestion can be passed to
+     * {@link #fromInput(String, Locale)}.
+     *
+     * @param input  what the user has typed so far
+     * @param locale the user interface locale; its names are suggested
+     *               before equally close names in other languages
+     * @param limit  the most names to return
+     * @return matching names in every supported language, best first, as
+     * they are displayed; empty if nothing is close
+     */
+    public static List<String> suggest(String input, Locale locale, int limit) {
+        AssignmentLogger.logStaticMethodEntry();
+        int preferred = locale == null ? NameIndex.OTHER_LANGUAGE : NameIndex.localeIndex(locale.getLanguage());
+        List<String> found = suggestions.search(input == null ? "" : input, preferred, limit);
         AssignmentLogger.logStaticMethodExit();
-        return result;
+        return found;
+    }
+
+    /**
+     * Reads the catalog and builds the names now, if that has not happened
+     * yet, rather than on the first lookup. With a large catalog this takes
+     * a while, so a user interface should call it off its event thread.
+     */
+    public static void load() {
+        AssignmentLogger.logStaticMethodEntry();
+        AssignmentLogger.logStaticMethodExit(); //Calling any static method has already initialised the class
+    }
+
+    /**
+     * Reads the instrument catalog and names again. Lookups already
+     * running finish with the old names; later ones see the new names and
+     * get new shared instances.
+     *
+     * @throws java.util.MissingResourceException if a bundle or label is
+     *                                            missing; the old catalog
+     *                                            and names are kept
+     */
+    public static synchronized void reloadNames() {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            ResourceBundle.clearCache(InstrumentFactory.class.getClassLoader());
+            InstrumentCatalog catalog = InstrumentCatalog.reread();
+            NameIndex rebuiltNames = NameIndex.build(catalog.all());
+            NameTrie rebuiltSuggestions = NameTrie.build(catalog.all());
+            //Everything is built, so nothing below can fail halfway
+            InstrumentCatalog.publish(catalog);
+            suggestions = rebuiltSuggestions;
+            names = rebuiltNames;
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
     }
 }
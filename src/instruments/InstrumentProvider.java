@@ -0,0 +1,17 @@
+package instruments;
+
+import java.util.List;
+
+/**
+ * Adds instruments to the {@link InstrumentCatalog} from code. Providers are
+ * found with {@link java.util.ServiceLoader}: list the implementing class in
+ * {@code META-INF/services/instruments.InstrumentProvider} on the classpath.
+ * They are asked for their entries once, the first time the catalog is used.
+ */
+public interface InstrumentProvider {
+    /**
+     * @return the entries to add; an entry whose key is already in the
+     * catalog is skipped
+     */
+    List<CatalogEntry> entries();
+}
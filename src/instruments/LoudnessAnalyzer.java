@@ -0,0 +1,337 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Measures every WAV in a directory and writes the gains that bring them to
+ * the same loudness into a {@link LoudnessIndex} next to them. Playback then
+ * applies each clip's gain as a plain multiply; nothing is measured while
+ * sounds play.
+ *
+ * For each clip it reports the sample peak and RMS level in dBFS and the
+ * loudness in LUFS, measured as in ITU-R BS.1770 / EBU R128: K-weighted,
+ * in 400 ms blocks with 75% overlap, gated at -70 LUFS and then 10 LU below
+ * the ungated level. Clips shorter than one block are measured as a whole.
+ * The gain aims for {@link #DEFAULT_TARGET_LUFS} but never lifts the peak
+ * above {@link #PEAK_CEILING_DB}.
+ *
+ * Files are measured in parallel by fork-join tasks that each own their
+ * slots of the result array, so the work spreads over every core with
+ * nothing shared between tasks. The tasks read files, so they run on a pool
+ * of their own rather than the common pool, which they would otherwise tie
+ * up while they wait on the disk.
+ *
+ * Usage: {@code java -cp out:. instruments.LoudnessAnalyzer [directory]
+ * [--target=LUFS]} (default resources/sounds and -16 LUFS).
+ */
+public class LoudnessAnalyzer {
+    static final double DEFAULT_TARGET_LUFS = -16;
+    static final double PEAK_CEILING_DB = -1;
+    private static final double BLOCK_SECONDS = 0.4;
+    private static final int SUB_BLOCKS = 4; //Blocks overlap by 75%, so they are built from quarter blocks
+    private static final double ABSOLUTE_GATE_LUFS = -70;
+    private static final double RELATIVE_GATE_LU = -10;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The levels of one clip
+     */
+    static final class Measurement {
+        final File file;
+        final long bytes;
+        final long crc32c;
+        final double peakDb;
+        final double rmsDb;
+        final double lufs;
+
+        Measurement(File file, long bytes, long crc32c, double peakDb, double rmsDb, double lufs) {
+            this.file = file;
+            this.bytes = bytes;
+            this.crc32c = crc32c;
+            this.peakDb = peakDb;
+            this.rmsDb = rmsDb;
+            this.lufs = lufs;
+        }
+
+        /**
+         * @param targetLufs the loudness to aim for
+         * @return the gain in dB that brings the clip to the target, or as
+         * close as the peak ceiling allows; 0 for a silent clip
+         */
+        double gainDb(double targetLufs) {
+            if (Double.isInfinite(lufs) || Double.isInfinite(peakDb)) {
+                return 0;
+            }
+            return Math.min(targetLufs - lufs, PEAK_CEILING_DB - peakDb);
+        }
+    }
+
+    /**
+     * Measures a range of files, splitting it in half until each task has
+     * one file
+     */
+    @SuppressWarnings("serial") //Never serialized; ForkJoinTask is Serializable only by inheritance
+    private static final class MeasureTask extends RecursiveAction {
+        private final List<File> files;
+        private final Measurement[] results;
+        private final int from;
+        private final int to;
+
+        MeasureTask(List<File> files, Measurement[] results, int from, int to) {
+            this.files = files;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int i = from; i < to; i++) {
+                    results[i] = measureQuietly(files.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new MeasureTask(files, results, from, middle), new MeasureTask(files, results, middle, to));
+        }
+    }
+
+    /**
+     * Measures the WAVs in a directory, prints their levels and writes the
+     * index.
+     */
+    public static void main(String[] args) {
+        AssignmentLogger.logMain();
+        Path dir = SoundLibrary.SOUNDS_DIR;
+        double target = DEFAULT_TARGET_LUFS;
+        for (String arg : args) {
+            if (arg.startsWith("--target=")) {
+                target = Double.parseDouble(arg.substring("--target=".length()));
+            } else {
+                dir = Paths.get(arg);
+            }
+        }
+        try {
+            List<File> files = new ArrayList<>();
+            try (DirectoryStream<Path> wavs = Files.newDirectoryStream(dir, "*.{wav,WAV}")) {
+                for (Path wav : wavs) {
+                    files.add(wav.toFile());
+                }
+            }
+            files.sort(null);
+            long start = System.nanoTime();
+            List<Measurement> measured = analyze(files);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("%-24s %8s %8s %8s %8s%n", "file", "peak dB", "rms dB", "LUFS", "gain dB");
+            for (Measurement m : measured) {
+                System.out.printf("%-24s %8.2f %8.2f %8.2f %8.2f%n", m.file.getName(), m.peakDb, m.rmsDb, m.lufs, m.gainDb(target));
+            }
+            System.out.printf("Measured %d of %d file(s) in %d ms on %d thread(s)%n",
+                    measured.size(), files.size(), millis, PARALLELISM);
+            LoudnessIndex.write(dir, measured, target);
+            System.out.println("Wrote " + dir.resolve(LoudnessIndex.FILE_NAME));
+        } catch (IOException e) {
+            AssignmentLogger.logCatchException(e);
+            System.err.println("Could not analyse " + dir + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Measures files in parallel on a fork-join pool made for the call and
+     * shut down after it.
+     *
+     * @param files the clips to measure
+     * @return a measurement for each clip that could be read, in the same
+     * order
+     */
+    static List<Measurement> analyze(List<File> files) {
+        AssignmentLogger.logStaticMethodEntry();
+        Measurement[] results = new Measurement[files.size()];
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            pool.invoke(new MeasureTask(files, results, 0, results.length));
+        } finally {
+            pool.shutdown();
+        }
+        List<Measurement> measured = new ArrayList<>(results.length);
+        for (Measurement m : results) {
+            if (m != null) {
+                measured.add(m);
+            }
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return measured;
+    }
+
+    /**
+     * Loads and measures one file.
+     *
+     * @param file the clip
+     * @return its levels
+     * @throws IOException                   if the file cannot be read
+     * @throws UnsupportedAudioFileException if it is not a supported format
+     */
+    static Measurement measure(File file) throws IOException, UnsupportedAudioFileException {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            int sourceChannels = AudioSystem.getAudioFileFormat(file).getFormat().getChannels();
+            return measure(SampleCache.load(file), sourceChannels, file.length(), LoudnessIndex.checksum(file));
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Measures one file, reporting a failure instead of throwing it
+     */
+    private static Measurement measureQuietly(File file) {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            return measure(file);
+        } catch (IOException | UnsupportedAudioFileException e) {
+            AssignmentLogger.logCatchException(e);
+            System.err.println("Skipped " + file + ": " + e.getMessage());
+            return null;
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Works out the peak, RMS and gated loudness of a sample in one pass. The
+     * per-sample loop is not logged.
+     *
+     * A mono file has been copied to both channels by the time it is
+     * measured. BS.1770 sums the channels, so counting both would make it
+     * about 3 dB louder than the mono signal it is; only the first channel
+     * goes into its loudness.
+     *
+     * @param sourceChannels channels in the file before it was normalized
+     */
+    static Measurement measure(Sample sample, int sourceChannels, long bytes, long crc32c) {
+        AssignmentLogger.logStaticMethodEntry();
+        ByteBuffer data = sample.data;
+        int channels = sample.format.getChannels();
+        int counted = sourceChannels == 1 ? 1 : channels; //Channels summed into the loudness
+        double rate = sample.format.getSampleRate();
+        double[][] filter = kWeighting(rate);
+        double[] pre = filter[0];
+        double[] rlb = filter[1];
+        double[] state = new double[channels * 4]; //Two delay elements for each of the two stages
+
+        int subBlockFrames = (int) Math.round(rate * BLOCK_SECONDS / SUB_BLOCKS);
+        double[] subBlocks = new double[sample.frames / subBlockFrames + 1]; //Sum of squares of the weighted signal
+        double peak = 0;
+        double sumSquares = 0;
+        double weightedTotal = 0;
+        for (int frame = 0, src = 0; frame < sample.frames; frame++) {
+            double weighted = 0;
+            for (int c = 0; c < channels; c++, src += 2) {
+                double x = data.getShort(src) / 32768.0;
+                peak = Math.max(peak, Math.abs(x));
+                sumSquares += x * x;
+                int s = c * 4;
+                double y = pre[0] * x + state[s];
+                state[s] = pre[1] * x - pre[3] * y + state[s + 1];
+                state[s + 1] = pre[2] * x - pre[4] * y;
+                double z = rlb[0] * y + state[s + 2];
+                state[s + 2] = rlb[1] * y - rlb[3] * z + state[s + 3];
+                state[s + 3] = rlb[2] * y - rlb[4] * z;
+                if (c < counted) {
+                    weighted += z * z;
+                }
+            }
+            subBlocks[frame / subBlockFrames] += weighted;
+            weightedTotal += weighted;
+        }
+
+        int fullSubBlocks = sample.frames / subBlockFrames;
+        double[] blocks; //Mean square of the weighted signal in each block
+        if (fullSubBlocks < SUB_BLOCKS) {
+            blocks = sample.frames == 0 ? new double[0] : new double[]{weightedTotal / sample.frames};
+        } else {
+            blocks = new double[fullSubBlocks - SUB_BLOCKS + 1];
+            for (int b = 0; b < blocks.length; b++) {
+                double sum = 0;
+                for (int k = 0; k < SUB_BLOCKS; k++) {
+                    sum += subBlocks[b + k];
+                }
+                blocks[b] = sum / (SUB_BLOCKS * subBlockFrames);
+            }
+        }
+        double lufs = gatedLoudness(blocks);
+        long samples = (long) sample.frames * channels;
+        double peakDb = 20 * Math.log10(peak);
+        double rmsDb = samples == 0 ? Double.NEGATIVE_INFINITY : 10 * Math.log10(sumSquares / samples);
+        AssignmentLogger.logStaticMethodExit();
+        return new Measurement(sample.file, bytes, crc32c, peakDb, rmsDb, lufs);
+    }
+
+    /**
+     * Applies the absolute and then the relative gate to block energies
+     */
+    private static double gatedLoudness(double[] blocks) {
+        AssignmentLogger.logStaticMethodEntry();
+        double[] audible = Arrays.stream(blocks).filter(z -> loudness(z) > ABSOLUTE_GATE_LUFS).toArray();
+        double lufs = Double.NEGATIVE_INFINITY;
+        if (audible.length > 0) {
+            double gate = loudness(Arrays.stream(audible).average().orElse(0)) + RELATIVE_GATE_LU;
+            lufs = loudness(Arrays.stream(audible).filter(z -> loudness(z) > gate).average().orElse(0));
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return lufs;
+    }
+
+    /**
+     * Loudness of a mean square summed over channels, in LUFS
+     */
+    private static double loudness(double meanSquare) {
+        return -0.691 + 10 * Math.log10(meanSquare); //Not logged: called for every block
+    }
+
+    /**
+     * The two BS.1770 K-weighting biquads (a high shelf, then a high pass)
+     * for any sample rate, as {b0, b1, b2, a1, a2} with a0 = 1
+     */
+    private static double[][] kWeighting(double rate) {
+        AssignmentLogger.logStaticMethodEntry();
+        double f0 = 1681.974450955533;
+        double gain = 3.999843853973347;
+        double q = 0.7071752369554196;
+        double k = Math.tan(Math.PI * f0 / rate);
+        double vh = Math.pow(10, gain / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        double[] shelf = {
+                (vh + vb * k / q + k * k) / a0,
+                2 * (k * k - vh) / a0,
+                (vh - vb * k / q + k * k) / a0,
+                2 * (k * k - 1) / a0,
+                (1 - k / q + k * k) / a0};
+
+        f0 = 38.13547087602444;
+        q = 0.5003270373238773;
+        k = Math.tan(Math.PI * f0 / rate);
+        a0 = 1 + k / q + k * k;
+        double[] highPass = {1, -2, 1, 2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0};
+        AssignmentLogger.logStaticMethodExit();
+        return new double[][]{shelf, highPass};
+    }
+}
@@ -0,0 +1,245 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * The per-clip playback gains written by {@link LoudnessAnalyzer} to
+ * {@value #FILE_NAME} next to the sound files. Each sample looks up its gain
+ * once when it is loaded, so the mixer only multiplies by it.
+ *
+ * An entry records the size and CRC32C checksum of the file it measured, so
+ * the index stays valid when the files are copied or checked out again; a
+ * clip that has changed since, or that was never analysed, plays at its
+ * original level. Checking a file against its entry reads the whole file, so
+ * it is done ahead of playback by {@link #resolve(File)}, on the preload
+ * threads; {@link #gainFor(File)} only reads the result.
+ */
+public final class LoudnessIndex {
+    static final String FILE_NAME = "loudness.properties";
+
+    /**
+     * A file's gain and the state of the file it was checked against
+     */
+    private static final class Resolved {
+        final long bytes;
+        final long modified;
+        final float gain;
+
+        Resolved(long bytes, long modified, float gain) {
+            this.bytes = bytes;
+            this.modified = modified;
+            this.gain = gain;
+        }
+    }
+
+    private static Properties entries = null; //Loaded on first lookup
+    private static final Map<File, Resolved> resolved = new ConcurrentHashMap<>();
+
+    private LoudnessIndex() {
+    }
+
+    /**
+     * The gain playback applies to a clip, as last worked out by
+     * {@link #resolve(File)}. Reads nothing from the disk.
+     *
+     * @param clip a sound file
+     * @return the linear gain from the index, or 1 if the clip has no
+     * up-to-date entry or has not been resolved yet
+     */
+    public static float gainFor(File clip) {
+        AssignmentLogger.logStaticMethodEntry();
+        Resolved known = resolved.get(clip.getAbsoluteFile());
+        AssignmentLogger.logStaticMethodExit();
+        return known == null ? 1f : known.gain;
+    }
+
+    /**
+     * Checks a clip against its entry in the index, reading the whole file
+     * the first time and again whenever its size or modification time has
+     * changed, so {@link #gainFor(File)} can answer from memory.
+     *
+     * @param clip a sound file
+     * @return the linear gain, as {@link #gainFor(File)} will now return it
+     */
+    static float resolve(File clip) {
+        AssignmentLogger.logStaticMethodEntry();
+        File key = clip.getAbsoluteFile();
+        long bytes = key.length();
+        long modified = key.lastModified();
+        Resolved known = resolved.get(key);
+        if (known == null || known.bytes != bytes || known.modified != modified) {
+            known = new Resolved(bytes, modified, lookUp(key, bytes));
+            resolved.put(key, known);
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return known.gain;
+    }
+
+    /**
+     * Reads a file's gain from the index if its entry matches the file
+     */
+    private static float lookUp(File clip, long bytes) {
+        AssignmentLogger.logStaticMethodEntry();
+        float gain = 1f;
+        Properties index = entries();
+        String name = clip.getName();
+        String gainDb = index.getProperty(name + ".gainDb");
+        try {
+            if (gainDb != null
+                    && String.valueOf(bytes).equals(index.getProperty(name + ".bytes"))
+                    && Long.toHexString(checksum(clip)).equals(index.getProperty(name + ".crc32c"))) {
+                gain = (float) Math.pow(10, Double.parseDouble(gainDb) / 20);
+            }
+        } catch (IOException | NumberFormatException e) {
+            AssignmentLogger.logCatchException(e);
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return gain;
+    }
+
+    /**
+     * Drops what is known about a file that has been deleted
+     *
+     * @param clip a sound file
+     */
+    static void forget(File clip) {
+        AssignmentLogger.logStaticMethodEntry();
+        resolved.remove(clip.getAbsoluteFile());
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * CRC32C of a whole file, read through a memory mapping
+     *
+     * @param file the file
+     * @return the checksum
+     * @throws IOException if the file cannot be read
+     */
+    static long checksum(File file) throws IOException {
+        AssignmentLogger.logStaticMethodEntry();
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            CRC32C crc = new CRC32C();
+            for (long at = 0; at < channel.size(); at += Integer.MAX_VALUE) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, at, Math.min(Integer.MAX_VALUE, channel.size() - at)));
+            }
+            return crc.getValue();
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Drops the loaded index so the next lookup reads the file again.
+     * Samples already loaded keep their gain.
+     */
+    static synchronized void reload() {
+        AssignmentLogger.logStaticMethodEntry();
+        entries = null;
+        resolved.clear();
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * Writes an index for one directory, replacing any previous one. Lines are
+     * sorted by file name so the file diffs cleanly.
+     *
+     * @param dir          the directory the clips are in
+     * @param measurements one per clip, all in {@code dir}
+     * @param targetLufs   the loudness the gains aim for
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Path dir, List<LoudnessAnalyzer.Measurement> measurements, double targetLufs) throws IOException {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            Path target = dir.resolve(FILE_NAME);
+            Path temp = Files.createTempFile(dir, FILE_NAME, ".tmp");
+            try {
+                List<LoudnessAnalyzer.Measurement> sorted = new ArrayList<>(measurements);
+                sorted.sort(Comparator.comparing(m -> m.file.getName()));
+                try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.ISO_8859_1)) {
+                    out.write("# Clip loudness, written by instruments.LoudnessAnalyzer; gains aim for "
+                            + format(targetLufs) + " LUFS with the peak at most " + format(LoudnessAnalyzer.PEAK_CEILING_DB) + " dBFS\n");
+                    for (LoudnessAnalyzer.Measurement m : sorted) {
+                        String key = escape(m.file.getName());
+                        out.write(key + ".bytes=" + m.bytes + "\n");
+                        out.write(key + ".crc32c=" + Long.toHexString(m.crc32c) + "\n");
+                        out.write(key + ".peakDb=" + format(m.peakDb) + "\n");
+                        out.write(key + ".rmsDb=" + format(m.rmsDb) + "\n");
+                        out.write(key + ".lufs=" + format(m.lufs) + "\n");
+                        out.write(key + ".gainDb=" + format(m.gainDb(targetLufs)) + "\n");
+                    }
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            reload();
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Returns the index of the sounds directory, reading it on first use
+     */
+    private static synchronized Properties entries() {
+        AssignmentLogger.logStaticMethodEntry();
+        if (entries == null) {
+            entries = new Properties();
+            Path file = SoundLibrary.SOUNDS_DIR.resolve(FILE_NAME);
+            if (Files.isRegularFile(file)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    entries.load(in);
+                } catch (IOException | IllegalArgumentException e) {
+                    AssignmentLogger.logCatchException(e); //Play everything at its original level
+                    entries.clear();
+                }
+            }
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return entries;
+    }
+
+    /**
+     * Two decimals, with a dot whatever the default locale
+     */
+    private static String format(double value) {
+        AssignmentLogger.logStaticMethodEntry();
+        AssignmentLogger.logStaticMethodExit();
+        return Double.isInfinite(value) ? (value < 0 ? "-Infinity" : "Infinity") : String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    /**
+     * Escapes the characters that are special in a properties key
+     */
+    private static String escape(String key) {
+        AssignmentLogger.logStaticMethodEntry();
+        StringBuilder out = new StringBuilder(key.length());
+        for (char c : key.toCharArray()) {
+            if (c == ' ' || c == '=' || c == ':' || c == '#' || c == '!' || c == '\\') {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return out.toString();
+    }
+}
@@ -0,0 +1,326 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sums any number of voices into one stream of 16-bit stereo PCM. Each voice
+ * starts at an exact frame on the bus timeline, so the result does not
+ * depend on when the rendering thread happened to run.
+ *
+ * How many voices sound at once is limited by the bus's {@link VoiceManager}:
+ * a voice over a limit steals the place of an older one, which fades out.
+ *
+ * Voices can be added from any thread; {@link #render(byte[], int)} must only
+ * be called from one thread at a time and does not allocate.
+ */
+final class MixBus {
+    /**
+     * The format the bus renders: 44.1 kHz, 16-bit, stereo, signed,
+     * little-endian, which is what the bundled WAVs use
+     */
+    static final AudioFormat FORMAT = new AudioFormat(44100f, 16, 2, true, false);
+    static final int MAX_VOICES = 256; //Slots on a live bus, including stolen voices that are fading out
+
+    private final VoiceManager voices;
+    private final ConcurrentLinkedQueue<Voice> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger(); //Size of incoming, which is slow to count
+    private final Voice[] active; //One slot per voice the manager allows, see VoiceManager#slots
+    private final int maxPending; //Voices waiting for the next block, four per slot; any more are dropped
+    private int activeCount = 0;
+    private long admitted = 0; //Voices taken from incoming so far, for their serial numbers
+    private int[] mix = new int[0]; //Sum of all voices for one block, before clipping
+    private volatile long framePosition = 0; //Frames rendered so far, i.e. the start of the next block
+
+    /**
+     * Creates a bus limited only by its number of slots.
+     */
+    MixBus() {
+        this(VoiceManager.unlimited());
+    }
+
+    /**
+     * @param voices the limits to apply and the counters to update
+     */
+    MixBus(VoiceManager voices) {
+        AssignmentLogger.logConstructor(this);
+        this.voices = voices;
+        this.active = new Voice[voices.slots];
+        this.maxPending = 4 * voices.slots;
+    }
+
+    /**
+     * Whether a sample can be mixed as it is: it must be 16-bit signed
+     * little-endian mono or stereo at the bus sample rate
+     *
+     * @param format the sample's format
+     * @return true if the bus can play it
+     */
+    static boolean accepts(AudioFormat format) {
+        AssignmentLogger.logStaticMethodEntry();
+        boolean ok = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+                && format.getSampleSizeInBits() == 16
+                && !format.isBigEndian()
+                && (format.getChannels() == 1 || format.getChannels() == 2)
+                && format.getSampleRate() == FORMAT.getSampleRate();
+        AssignmentLogger.logStaticMethodExit();
+        return ok;
+    }
+
+    /**
+     * Queues a voice. It is picked up at the start of the next block, or
+     * dropped if four voices per bus slot are already waiting.
+     *
+     * @param voice the voice to play
+     */
+    void add(Voice voice) {
+        AssignmentLogger.logMethodEntry(this);
+        enqueue(voice);
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * Same as {@link #add(Voice)}. Not logged: for feeders, which run on the
+     * render thread and must not wait on the logger.
+     *
+     * @param voice the voice to play
+     */
+    void enqueue(Voice voice) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            drop(voice);
+        } else {
+            incoming.add(voice);
+        }
+    }
+
+    /**
+     * @return the bus frame at which the next block starts
+     */
+    long framePosition() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return framePosition;
+    }
+
+    /**
+     * Mixes the next block of the timeline into {@code out}. Not logged: this
+     * runs hundreds of times a second on the render thread.
+     *
+     * @param out    receives frames * 4 bytes of 16-bit stereo PCM
+     * @param frames the block length in frames
+     */
+    void render(byte[] out, int frames) {
+        long blockStart = framePosition;
+        int samples = frames * 2;
+        if (mix.length < samples) {
+            mix = new int[samples]; //Only when the block size grows
+        }
+        Arrays.fill(mix, 0, samples, 0);
+
+        Voice voice;
+        while ((voice = incoming.poll()) != null) {
+            pending.decrementAndGet();
+            admit(voice);
+        }
+        for (int i = 0; i < activeCount;) {
+            voice = active[i];
+            long start = voice.startFrame - blockStart;
+            if (start >= frames) {
+                i++; //Starts in a later block
+                continue;
+            }
+            int offset = (int) Math.max(0, start);
+            int count = voice.fadeLeft < 0 ? frames - offset : Math.min(frames - offset, voice.fadeLeft);
+            boolean done;
+            if (voice.stream == null) {
+                count = Math.min(count, voice.sample.frames - voice.position);
+                mixVoice(voice, offset, count);
+                voice.position += count;
+                done = voice.position >= voice.sample.frames;
+            } else {
+                count = Math.min(count, voice.stream.available()); //If the reader is behind, the rest waits for the next block
+                mixStream(voice, offset, count);
+                voice.position += count;
+                done = voice.stream.finished();
+            }
+            if (voice.fadeLeft >= 0) {
+                voice.fadeLeft -= count;
+                done |= voice.fadeLeft == 0;
+            }
+            if (done) {
+                remove(i);
+            } else {
+                i++;
+            }
+        }
+        voices.countActive(activeCount);
+
+        for (int i = 0, b = 0; i < samples; i++, b += 2) {
+            int value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            out[b] = (byte) value;
+            out[b + 1] = (byte) (value >> 8);
+        }
+        framePosition = blockStart + frames;
+    }
+
+    /**
+     * Gives a new voice a slot, first stealing one if the voice would go over
+     * the global or per-instrument limit. A stolen voice that has not made a
+     * sound yet is removed at once; one that has fades out in its slot.
+     */
+    private void admit(Voice voice) {
+        int sounding = 0;
+        int sameInstrument = 0;
+        for (int i = 0; i < activeCount; i++) {
+            if (active[i].fadeLeft < 0) {
+                sounding++;
+                if (active[i].group == voice.group) { //Stems are interned
+                    sameInstrument++;
+                }
+            }
+        }
+        int victim = -1;
+        if (sameInstrument >= voices.limitPerInstrument()) {
+            victim = pickVictim(voice.group);
+        } else if (sounding >= voices.limit()) {
+            victim = pickVictim(null);
+        }
+        if (victim >= 0) {
+            voices.countStolen();
+            if (active[victim].position > 0) {
+                active[victim].fadeLeft = VoiceManager.FADE_FRAMES;
+            } else {
+                remove(victim);
+            }
+        }
+        if (activeCount == active.length) {
+            drop(voice); //Every slot is fading out
+            return;
+        }
+        voice.serial = admitted++;
+        active[activeCount++] = voice;
+    }
+
+    /**
+     * Chooses the voice to steal among those not already fading out,
+     * optionally only from one instrument. Voices that have started playing
+     * go first, then the steal policy decides.
+     *
+     * @return the victim's index in active, or -1 if there is none
+     */
+    private int pickVictim(String group) {
+        int best = -1;
+        for (int i = 0; i < activeCount; i++) {
+            Voice candidate = active[i];
+            if (candidate.fadeLeft >= 0 || (group != null && candidate.group != group)) {
+                continue;
+            }
+            if (best < 0) {
+                best = i;
+                continue;
+            }
+            Voice current = active[best];
+            boolean started = candidate.position > 0;
+            if (started != current.position > 0) {
+                if (started) {
+                    best = i;
+                }
+            } else if (voices.steal == VoiceManager.Steal.QUIETEST && candidate.level != current.level) {
+                if (candidate.level < current.level) {
+                    best = i;
+                }
+            } else if (candidate.serial < current.serial) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Frees a slot, stopping the voice's stream if it has one
+     */
+    private void remove(int index) {
+        Voice voice = active[index];
+        active[index] = active[--activeCount];
+        active[activeCount] = null;
+        if (voice.stream != null && !voice.stream.finished()) {
+            voice.stream.close();
+        }
+    }
+
+    /**
+     * Counts a voice that will never play and releases its stream
+     */
+    private void drop(Voice voice) {
+        voices.countDropped();
+        if (voice.stream != null) {
+            voice.stream.close();
+        }
+    }
+
+    /**
+     * Adds {@code count} frames of a voice to the mix, starting at frame
+     * {@code offset} of the block. A fading voice ramps down to silence.
+     */
+    private void mixVoice(Voice voice, int offset, int count) {
+        ByteBuffer data = voice.sample.data;
+        int channels = voice.sample.format.getChannels();
+        int frameBytes = channels * 2;
+        float gain = voice.gain;
+        float fadeStep = 0f;
+        if (voice.fadeLeft >= 0) {
+            fadeStep = voice.gain / VoiceManager.FADE_FRAMES;
+            gain = fadeStep * voice.fadeLeft;
+        }
+        int peak = 0;
+        int src = voice.position * frameBytes;
+        int dst = offset * 2;
+        for (int f = 0; f < count; f++, src += frameBytes, gain -= fadeStep) {
+            int left = data.getShort(src);
+            int right = channels == 2 ? data.getShort(src + 2) : left;
+            mix[dst++] += (int) (left * gain);
+            mix[dst++] += (int) (right * gain);
+            peak = Math.max(peak, Math.max(Math.abs(left), Math.abs(right)));
+        }
+        voice.level = (int) (peak * voice.gain);
+    }
+
+    /**
+     * Adds {@code count} frames of a streamed voice from its ring buffer,
+     * which always holds stereo frames in the bus format, then hands the
+     * space back to the stream's reader. A fading voice ramps down to
+     * silence.
+     */
+    private void mixStream(Voice voice, int offset, int count) {
+        SampleStream stream = voice.stream;
+        byte[] ring = stream.ring;
+        float gain = voice.gain;
+        float fadeStep = 0f;
+        if (voice.fadeLeft >= 0) {
+            fadeStep = voice.gain / VoiceManager.FADE_FRAMES;
+            gain = fadeStep * voice.fadeLeft;
+        }
+        int peak = 0;
+        int frame = stream.readIndex();
+        int dst = offset * 2;
+        for (int f = 0; f < count; f++, gain -= fadeStep) {
+            int src = frame * 4;
+            int left = (short) ((ring[src] & 0xff) | (ring[src + 1] << 8));
+            int right = (short) ((ring[src + 2] & 0xff) | (ring[src + 3] << 8));
+            mix[dst++] += (int) (left * gain);
+            mix[dst++] += (int) (right * gain);
+            peak = Math.max(peak, Math.max(Math.abs(left), Math.abs(right)));
+            if (++frame == stream.capacity) {
+                frame = 0;
+            }
+        }
+        voice.level = (int) (peak * voice.gain);
+        stream.consumed(count);
+    }
+}
@@ -0,0 +1,176 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Plays every sound through one {@link SourceDataLine}. A dedicated render
+ * thread mixes all active voices with a {@link MixBus} into a small block
+ * and writes it to the line, so any number of overlapping sounds use a single
+ * native line and a new sound starts within a couple of blocks.
+ *
+ * The latency is the line buffer: {@link #BLOCK_FRAMES} frames (about 3 ms)
+ * times -Dsound.mixer.blocks (default 3).
+ */
+final class MixerEngine {
+    static final int BLOCK_FRAMES = 128;
+    static final int DEFAULT_BLOCKS = 3;
+
+    /**
+     * Adds voices to the bus just before the block they start in. Called on
+     * the render thread once per block, so it must be quick and not block;
+     * use {@link MixBus#enqueue(Voice)}, which does not log.
+     */
+    interface Feeder {
+        /**
+         * @param bus        the engine's bus
+         * @param blockStart the bus frame of the block about to be rendered
+         * @param frames     the block length
+         * @return false once there is nothing more to add; the feeder is
+         * then removed
+         */
+        boolean feed(MixBus bus, long blockStart, int frames);
+    }
+
+    private final MixBus bus;
+    private final SourceDataLine line;
+    private final Thread renderer;
+    private volatile boolean running = true;
+    private final AtomicReference<Feeder[]> feeders = new AtomicReference<>(new Feeder[0]); //Replaced by CAS, never modified, so no thread locks to read or change it
+
+    /**
+     * Opens the output line and starts the render thread.
+     *
+     * @param blocks how many blocks the line buffers, at least 2
+     * @param voices the polyphony limits to mix with
+     * @throws LineUnavailableException if no output line can be opened
+     */
+    MixerEngine(int blocks, VoiceManager voices) throws LineUnavailableException {
+        AssignmentLogger.logConstructor(this);
+        bus = new MixBus(voices);
+        int bufferBytes = Math.max(2, blocks) * BLOCK_FRAMES * MixBus.FORMAT.getFrameSize();
+        try {
+            line = AudioSystem.getSourceDataLine(MixBus.FORMAT);
+        } catch (IllegalArgumentException e) {
+            throw new LineUnavailableException("No output line for " + MixBus.FORMAT + ": " + e.getMessage());
+        }
+        line.open(MixBus.FORMAT, bufferBytes);
+        line.start();
+        renderer = new Thread(this::renderLoop, "SoundPlayer-mixer");
+        renderer.setDaemon(true);
+        renderer.setPriority(Thread.MAX_PRIORITY);
+        renderer.start();
+    }
+
+    /**
+     * Starts a sample as soon as possible. Returns immediately.
+     *
+     * @param sample a sample in a format the bus accepts
+     */
+    void play(Sample sample) {
+        AssignmentLogger.logMethodEntry(this);
+        bus.add(new Voice(sample, 0));
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * Starts a stream as soon as possible. Returns immediately; the stream is
+     * mixed as fast as its reader fills it.
+     *
+     * @param stream an open stream
+     */
+    void play(SampleStream stream) {
+        AssignmentLogger.logMethodEntry(this);
+        bus.add(new Voice(stream, 0));
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * Registers a feeder, which is first called for the next block rendered.
+     *
+     * @param feeder the feeder to add
+     */
+    void addFeeder(Feeder feeder) {
+        AssignmentLogger.logMethodEntry(this);
+        feeders.updateAndGet(current -> {
+            Feeder[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = feeder;
+            return grown;
+        });
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * Unregisters a feeder. It may still be called for the block that is
+     * being rendered right now.
+     *
+     * @param feeder the feeder to remove
+     */
+    void removeFeeder(Feeder feeder) {
+        AssignmentLogger.logMethodEntry(this);
+        dropFeeder(feeder);
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * Swaps in a copy of the feeder array without the given feeder.
+     * Not logged and takes no lock: the render thread calls it between blocks.
+     */
+    private void dropFeeder(Feeder feeder) {
+        Feeder[] current;
+        Feeder[] kept;
+        do {
+            current = feeders.get();
+            int index = Arrays.asList(current).indexOf(feeder);
+            if (index < 0) {
+                return;
+            }
+            kept = new Feeder[current.length - 1];
+            System.arraycopy(current, 0, kept, 0, index);
+            System.arraycopy(current, index + 1, kept, index, kept.length - index);
+        } while (!feeders.compareAndSet(current, kept));
+    }
+
+    /**
+     * Stops the render thread and closes the line.
+     */
+    void close() {
+        AssignmentLogger.logMethodEntry(this);
+        running = false;
+        try {
+            renderer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        line.close();
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * Renders blocks for as long as the engine runs. Silence is written when
+     * nothing is playing so the line never has to restart. write() blocks
+     * while the line buffer is full, which paces the loop to the device.
+     * blockStart counts the same frames as the bus, which only this thread
+     * advances.
+     */
+    private void renderLoop() {
+        AssignmentLogger.logMethodEntry(this);
+        byte[] block = new byte[BLOCK_FRAMES * MixBus.FORMAT.getFrameSize()];
+        for (long blockStart = 0; running; blockStart += BLOCK_FRAMES) {
+            for (Feeder feeder : feeders.get()) {
+                if (!feeder.feed(bus, blockStart, BLOCK_FRAMES)) {
+                    dropFeeder(feeder);
+                }
+            }
+            bus.render(block, BLOCK_FRAMES);
+            line.write(block, 0, block.length);
+        }
+        line.drain();
+        AssignmentLogger.logMethodExit(this);
+    }
+}
@@ -0,0 +1,164 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Every name an instrument can be typed as (its name in each language and
+ * its raw key) mapped to its {@link InstrumentCatalog} entry.
+ *
+ * An index is built once and never changed, so any number of threads can
+ * look names up without locking. {@link #find(String)} compares characters in
+ * place, ignoring case and surrounding whitespace, so a lookup does not
+ * allocate.
+ */
+final class NameIndex {
+    static final int OTHER_LANGUAGE = -1; //Locale index of a raw key or a language not in InstrumentCatalog.LOCALES
+
+    private final String[] names; //Open-addressed table; empty slots are null
+    private final CatalogEntry[] entries; //Same slots as names
+    private final int mask;
+
+    private NameIndex(int capacity) {
+        AssignmentLogger.logConstructor(this);
+        this.names = new String[capacity];
+        this.entries = new CatalogEntry[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Indexes every name of every entry of a catalog.
+     *
+     * @param catalog the entries to index
+     * @return a new index
+     */
+    static NameIndex build(Collection<CatalogEntry> catalog) {
+        AssignmentLogger.logStaticMethodEntry();
+        int count = 0;
+        for (CatalogEntry entry : catalog) {
+            count += entry.getNames().size() + 1;
+        }
+        NameIndex index = new NameIndex(Integer.highestOneBit(Math.max(1, count * 4 - 1)) << 1); //At most a quarter full
+        forEachName(catalog, (name, locale, entry) -> index.put(name, entry));
+        AssignmentLogger.logStaticMethodExit();
+        return index;
+    }
+
+    /**
+     * Receives one accepted name
+     */
+    interface NameSink {
+        /**
+         * @param name   a name as the entry gives it, or the raw key
+         * @param locale index in {@link InstrumentCatalog#LOCALES}, or
+         *               {@link #OTHER_LANGUAGE}
+         * @param entry  the instrument it names
+         */
+        void accept(String name, int locale, CatalogEntry entry);
+    }
+
+    /**
+     * Lists every accepted name: for each catalog entry, its names in each
+     * language, then its raw key.
+     *
+     * @param catalog the entries whose names to list
+     * @param sink    receives the names
+     */
+    static void forEachName(Collection<CatalogEntry> catalog, NameSink sink) {
+        AssignmentLogger.logStaticMethodEntry();
+        for (CatalogEntry entry : catalog) {
+            for (Map.Entry<String, String> name : entry.getNames().entrySet()) {
+                sink.accept(name.getValue(), localeIndex(name.getKey()), entry);
+            }
+            sink.accept(entry.getKey(), OTHER_LANGUAGE, entry);
+        }
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * @param language a language tag, e.g. "es"
+     * @return its index in {@link InstrumentCatalog#LOCALES}, or
+     * {@link #OTHER_LANGUAGE}
+     */
+    static int localeIndex(String language) {
+        AssignmentLogger.logStaticMethodEntry();
+        int index = OTHER_LANGUAGE;
+        for (int l = 0; l < InstrumentCatalog.LOCALES.length; l++) {
+            if (InstrumentCatalog.LOCALES[l].getLanguage().equals(language)) {
+                index = l;
+            }
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return index;
+    }
+
+    /**
+     * Adds a name, replacing the instrument of an equal one
+     */
+    private void put(String name, CatalogEntry entry) {
+        AssignmentLogger.logMethodEntry(this);
+        int slot = hash(name, 0, name.length()) & mask;
+        while (names[slot] != null && !matches(names[slot], name, 0, name.length())) {
+            slot = (slot + 1) & mask;
+        }
+        names[slot] = name;
+        entries[slot] = entry;
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * Finds the instrument a user typed. Not logged: called for every lookup,
+     * which must not allocate.
+     *
+     * @param input the text as typed; case and leading or trailing
+     *              whitespace are ignored
+     * @return the instrument's entry, or null if the name is unknown
+     */
+    CatalogEntry find(String input) {
+        int from = 0;
+        int to = input.length();
+        while (from < to && input.charAt(from) <= ' ') {
+            from++; //Same whitespace as String.trim()
+        }
+        while (to > from && input.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        int slot = hash(input, from, to) & mask;
+        String name;
+        while ((name = names[slot]) != null) {
+            if (matches(name, input, from, to)) {
+                return entries[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Hash of a range of characters, folded to lower case
+     */
+    private static int hash(String text, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + Character.toLowerCase(text.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Whether a name equals a range of the input, ignoring case
+     */
+    private static boolean matches(String name, String input, int from, int to) {
+        if (name.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase(name.charAt(i)) != Character.toLowerCase(input.charAt(from + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,330 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Type-ahead search over instrument names that tolerates typos. Given what
+ * the user has typed so far, it returns the names that start with it or
+ * with something a few edits away, best first, so "guitr" finds Guitar and
+ * "tamb" finds Tambor.
+ *
+ * Names are folded to lower case without accents and stored in a trie whose
+ * nodes are flattened into arrays, with the children of each node side by
+ * side. A search walks the trie once, keeping one row of the edit distance
+ * table per depth (Levenshtein plus swaps of adjacent letters), and skips
+ * every branch that is already too many edits away. The work depends on the
+ * length of the query and the few branches close to it, not on how many
+ * names there are.
+ *
+ * A trie is never changed once built, so any number of threads can search
+ * it at once.
+ */
+final class NameTrie {
+    static final int MAX_EDITS = 2;
+
+    private final char[] chars; //Letter on the edge into each node; node 0 is the root
+    private final int[] firstChild; //Children of a node are firstChild .. firstChild + childCount - 1
+    private final int[] childCount;
+    private final int[] terminal; //Index in names of the name ending at a node, or -1
+    private final String[] names; //As they are displayed
+    private final int[] localeMasks; //Bit l set if the name is in the language of InstrumentCatalog.LOCALES[l]
+    private final int depth; //Length of the longest folded name
+
+    /**
+     * Collects names and flattens them into a trie.
+     */
+    static final class Builder {
+        private final Node root = new Node();
+        private final List<String> names = new ArrayList<>();
+        private final List<Integer> localeMasks = new ArrayList<>();
+        private int nodes = 1;
+        private int depth = 0;
+
+        Builder() {
+            AssignmentLogger.logConstructor(this);
+        }
+
+        /**
+         * Adds a name. A name that folds to one already added only adds its
+         * locale to the first.
+         *
+         * @param name   the name as it should be displayed
+         * @param locale index in {@link InstrumentCatalog#LOCALES}, or
+         *               {@link NameIndex#OTHER_LANGUAGE}
+         * @return this builder
+         */
+        Builder add(String name, int locale) {
+            AssignmentLogger.logMethodEntry(this);
+            String folded = fold(name);
+            Node node = root;
+            for (int i = 0; i < folded.length(); i++) {
+                Node child = node.children.get(folded.charAt(i));
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(folded.charAt(i), child);
+                    nodes++;
+                }
+                node = child;
+            }
+            if (node.name < 0 && !folded.isEmpty()) {
+                node.name = names.size();
+                names.add(name);
+                localeMasks.add(0);
+                depth = Math.max(depth, folded.length());
+            }
+            if (node.name >= 0 && locale >= 0) {
+                localeMasks.set(node.name, localeMasks.get(node.name) | (1 << locale));
+            }
+            AssignmentLogger.logMethodExit(this);
+            return this;
+        }
+
+        /**
+         * @return the trie of every name added
+         */
+        NameTrie build() {
+            AssignmentLogger.logMethodEntry(this);
+            NameTrie trie = new NameTrie(this);
+            AssignmentLogger.logMethodExit(this);
+            return trie;
+        }
+    }
+
+    /**
+     * A trie node while names are being added
+     */
+    private static final class Node {
+        final Map<Character, Node> children = new TreeMap<>();
+        int name = -1;
+    }
+
+    /**
+     * The best names found so far, at most as many as were asked for, in
+     * ranking order
+     */
+    private final class Results {
+        final int[] found; //Indexes in names
+        final int[] prefixEdits; //Edits from the query to the closest prefix of each name
+        final boolean[] whole; //Whether that prefix is the whole name
+        final int preferred; //Locale mask of the names to prefer
+        int count = 0;
+
+        Results(int limit, int preferred) {
+            AssignmentLogger.logConstructor(this);
+            found = new int[limit];
+            prefixEdits = new int[limit];
+            whole = new boolean[limit];
+            this.preferred = preferred;
+        }
+
+        /**
+         * Keeps a name if it ranks among the best so far. Not logged: called
+         * for every name that matches.
+         */
+        void offer(int name, int edits, boolean isWhole) {
+            int at = count;
+            while (at > 0 && ranksBefore(name, edits, isWhole, at - 1)) {
+                at--;
+            }
+            if (at == found.length) {
+                return;
+            }
+            int moved = Math.min(count, found.length - 1) - at;
+            System.arraycopy(found, at, found, at + 1, moved);
+            System.arraycopy(prefixEdits, at, prefixEdits, at + 1, moved);
+            System.arraycopy(whole, at, whole, at + 1, moved);
+            found[at] = name;
+            prefixEdits[at] = edits;
+            whole[at] = isWhole;
+            count = Math.min(count + 1, found.length);
+        }
+
+        /**
+         * Whether a name ranks before the one kept at an index: fewer edits,
+         * then a whole name before a longer one, then the preferred locale,
+         * then shorter, then alphabetical. Not logged, see offer.
+         */
+        private boolean ranksBefore(int name, int edits, boolean isWhole, int index) {
+            if (edits != prefixEdits[index]) {
+                return edits < prefixEdits[index];
+            }
+            if (isWhole != whole[index]) {
+                return isWhole;
+            }
+            boolean isPreferred = (localeMasks[name] & preferred) != 0;
+            if (isPreferred != ((localeMasks[found[index]] & preferred) != 0)) {
+                return isPreferred;
+            }
+            String a = names[name];
+            String b = names[found[index]];
+            return a.length() != b.length() ? a.length() < b.length() : a.compareToIgnoreCase(b) < 0;
+        }
+    }
+
+    private NameTrie(Builder builder) {
+        AssignmentLogger.logConstructor(this);
+        chars = new char[builder.nodes];
+        firstChild = new int[builder.nodes];
+        childCount = new int[builder.nodes];
+        terminal = new int[builder.nodes];
+        names = builder.names.toArray(new String[0]);
+        localeMasks = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            localeMasks[i] = builder.localeMasks.get(i);
+        }
+        depth = builder.depth;
+
+        //Breadth first, so each node's children get consecutive slots
+        List<Node> queue = new ArrayList<>(builder.nodes);
+        queue.add(builder.root);
+        terminal[0] = builder.root.name;
+        int next = 1;
+        for (int at = 0; at < queue.size(); at++) {
+            Node node = queue.get(at);
+            firstChild[at] = next;
+            childCount[at] = node.children.size();
+            for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+                chars[next] = child.getKey();
+                terminal[next] = child.getValue().name;
+                queue.add(child.getValue());
+                next++;
+            }
+        }
+    }
+
+    /**
+     * Builds the trie of every name of every entry of a catalog.
+     *
+     * @param catalog the entries whose names to add
+     * @return a new trie
+     */
+    static NameTrie build(Collection<CatalogEntry> catalog) {
+        AssignmentLogger.logStaticMethodEntry();
+        Builder builder = new Builder();
+        NameIndex.forEachName(catalog, (name, locale, entry) -> builder.add(name, locale));
+        NameTrie trie = builder.build();
+        AssignmentLogger.logStaticMethodExit();
+        return trie;
+    }
+
+    /**
+     * The edits a query of this length may be away from a name: none up to
+     * 2 letters, one up to 5, then {@link #MAX_EDITS}
+     *
+     * @param length length of the folded query
+     * @return the edit budget
+     */
+    static int editsAllowed(int length) {
+        AssignmentLogger.logStaticMethodEntry();
+        AssignmentLogger.logStaticMethodExit();
+        return length <= 2 ? 0 : length <= 5 ? 1 : MAX_EDITS;
+    }
+
+    /**
+     * Finds the names a query may be the start of. Names the query starts
+     * closest to come first, then whole names before longer ones, then
+     * names in the preferred locale, then shorter names, then in
+     * alphabetical order.
+     *
+     * @param query  what the user typed; case, accents and surrounding
+     *               whitespace are ignored
+     * @param locale index in {@link InstrumentCatalog#LOCALES} of the names to prefer,
+     *               or -1
+     * @param limit  the most names to return
+     * @return the names as they are displayed, best first; empty for a
+     * blank query
+     */
+    List<String> search(String query, int locale, int limit) {
+        AssignmentLogger.logMethodEntry(this);
+        String q = fold(query.trim());
+        Results results = new Results(Math.max(0, limit), locale >= 0 ? 1 << locale : 0);
+        if (!q.isEmpty() && limit > 0) {
+            int[][] rows = new int[depth + 1][q.length() + 1];
+            char[] path = new char[depth + 1];
+            for (int j = 0; j <= q.length(); j++) {
+                rows[0][j] = j;
+            }
+            walk(0, 0, q, editsAllowed(q.length()), rows, path, Integer.MAX_VALUE, results);
+        }
+        List<String> found = new ArrayList<>(results.count);
+        for (int i = 0; i < results.count; i++) {
+            found.add(names[results.found[i]]);
+        }
+        AssignmentLogger.logMethodExit(this);
+        return found;
+    }
+
+    /**
+     * Visits the children of a node at some depth, filling in their rows of
+     * the distance table. Not logged: called for every node visited.
+     *
+     * @param prefixEdits the fewest edits from the query to any prefix of the
+     *                    path so far
+     */
+    private void walk(int node, int d, String q, int edits, int[][] rows, char[] path, int prefixEdits, Results results) {
+        int m = q.length();
+        for (int child = firstChild[node], end = child + childCount[node]; child < end; child++) {
+            char c = chars[child];
+            path[d] = c;
+            int[] above = rows[d];
+            int[] row = rows[d + 1];
+            row[0] = d + 1;
+            int best = row[0];
+            for (int j = 1; j <= m; j++) {
+                char qc = q.charAt(j - 1);
+                int cost = Math.min(Math.min(above[j] + 1, row[j - 1] + 1), above[j - 1] + (qc == c ? 0 : 1));
+                if (d > 0 && j > 1 && qc == path[d - 1] && q.charAt(j - 2) == c) {
+                    cost = Math.min(cost, rows[d - 1][j - 2] + 1); //Two letters swapped
+                }
+                row[j] = cost;
+                best = Math.min(best, row[j]);
+            }
+            int reached = Math.min(prefixEdits, row[m]);
+            if (terminal[child] >= 0 && reached <= edits) {
+                results.offer(terminal[child], reached, row[m] == reached);
+            }
+            if (best <= edits) {
+                walk(child, d + 1, q, edits, rows, path, reached, results);
+            } else if (reached <= edits) {
+                complete(child, reached, results); //Every name below starts with a match; no deeper row can do better
+            }
+        }
+    }
+
+    /**
+     * Offers every name below a node as a completion of the query. Not
+     * logged, see walk.
+     */
+    private void complete(int node, int edits, Results results) {
+        for (int child = firstChild[node], end = child + childCount[node]; child < end; child++) {
+            if (terminal[child] >= 0) {
+                results.offer(terminal[child], edits, false);
+            }
+            complete(child, edits, results);
+        }
+    }
+
+    /**
+     * Lower case without accents, so a name typed without them still matches
+     */
+    static String fold(String name) {
+        AssignmentLogger.logStaticMethodEntry();
+        String plain = Normalizer.normalize(name, Normalizer.Form.NFD);
+        StringBuilder folded = new StringBuilder(plain.length());
+        for (int i = 0; i < plain.length(); i++) {
+            char c = plain.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                folded.append(Character.toLowerCase(c));
+            }
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return folded.toString();
+    }
+}
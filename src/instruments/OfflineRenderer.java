@@ -0,0 +1,266 @@
+package instruments;
+
+import exceptions.UnrecognizedInstrumentException;
+import logging.AssignmentLogger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Renders a list of timed instrument hits to a WAV file without an audio
+ * device, as fast as the CPU allows. It mixes with the same {@link MixBus}
+ * and the same cached samples as live playback, so the output is exactly what
+ * the mixer would have played.
+ *
+ * <pre>
+ *   new OfflineRenderer()
+ *       .add(0.0, new Drum(), 0)
+ *       .add(0.5, new Piano(), 2)
+ *       .render(new File("out.wav"));
+ * </pre>
+ *
+ * From the command line: {@code java -cp out:. instruments.OfflineRenderer
+ * out.wav drum@0 piano@0.5:2} (instrument@seconds, optionally :clip index).
+ *
+ * At most -Dsound.offline.voices clips (default 256, like the live mixer's
+ * bus) sound at once; past that the oldest is cut short, and the render logs
+ * how many were.
+ */
+public final class OfflineRenderer {
+    static final int BLOCK_FRAMES = 4096;
+    static final int DEFAULT_MAX_VOICES = MixBus.MAX_VOICES;
+
+    /**
+     * One sample starting at one frame of the output
+     */
+    private static final class Event {
+        final long frame;
+        final Sample sample;
+        final float gain;
+
+        Event(long frame, Sample sample, float gain) {
+            this.frame = frame;
+            this.sample = sample;
+            this.gain = gain;
+        }
+    }
+
+    private final List<Event> events = new ArrayList<>();
+
+    /**
+     * Creates an empty render.
+     */
+    public OfflineRenderer() {
+        AssignmentLogger.logConstructor(this);
+    }
+
+    /**
+     * @return the format of the rendered audio: 44.1 kHz, 16-bit, stereo
+     */
+    public static AudioFormat format() {
+        AssignmentLogger.logStaticMethodEntry();
+        AssignmentLogger.logStaticMethodExit();
+        return MixBus.FORMAT;
+    }
+
+    /**
+     * Adds a hit at a time in seconds, rounded to the nearest frame.
+     *
+     * @param seconds    when the clip starts, from the start of the output
+     * @param instrument the instrument whose clip is played
+     * @param clip       which of the instrument's clips, counting from 0 in
+     *                   file number order (Guitar1.wav is 0)
+     * @return this renderer
+     * @throws IOException                   if the clip cannot be read
+     * @throws UnsupportedAudioFileException if the clip cannot be mixed
+     */
+    public OfflineRenderer add(double seconds, Instrument instrument, int clip) throws IOException, UnsupportedAudioFileException {
+        AssignmentLogger.logMethodEntry(this);
+        try {
+            return addAtFrame(Math.round(seconds * MixBus.FORMAT.getSampleRate()), instrument, clip);
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * Adds a hit at an exact frame of the output.
+     *
+     * @param frame      the output frame at which the clip starts
+     * @param instrument the instrument whose clip is played
+     * @param clip       which of the instrument's clips, counting from 0
+     * @return this renderer
+     * @throws IOException                   if the clip cannot be read
+     * @throws UnsupportedAudioFileException if the clip cannot be mixed
+     */
+    public OfflineRenderer addAtFrame(long frame, Instrument instrument, int clip) throws IOException, UnsupportedAudioFileException {
+        AssignmentLogger.logMethodEntry(this);
+        try {
+            Sample sample = sampleFor(instrument, clip);
+            return addAtFrame(frame, sample, gainFor(sample));
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * Adds an already loaded sample at an exact frame of the output.
+     *
+     * @param frame  the output frame at which the sample starts
+     * @param sample a sample in a format the bus accepts
+     * @param gain   its playback gain, see {@link #gainFor(Sample)}
+     * @return this renderer
+     */
+    OfflineRenderer addAtFrame(long frame, Sample sample, float gain) {
+        AssignmentLogger.logMethodEntry(this);
+        try {
+            if (frame < 0) {
+                throw new IllegalArgumentException("Negative start frame " + frame);
+            }
+            events.add(new Event(frame, sample, gain));
+            return this;
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * @return the length of the output in frames: until the last clip ends
+     */
+    public long lengthInFrames() {
+        AssignmentLogger.logMethodEntry(this);
+        long length = 0;
+        for (Event event : events) {
+            length = Math.max(length, event.frame + event.sample.frames);
+        }
+        AssignmentLogger.logMethodExit(this);
+        return length;
+    }
+
+    /**
+     * Renders to a WAV file.
+     *
+     * @param file the file to create or replace
+     * @throws IOException if the file cannot be written
+     */
+    public void render(File file) throws IOException {
+        AssignmentLogger.logMethodEntry(this);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)) {
+            render(out);
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * Renders WAV data (header and audio) to a stream. The stream is not
+     * closed.
+     *
+     * @param out where the WAV data is written
+     * @throws IOException if writing fails
+     */
+    public void render(OutputStream out) throws IOException {
+        AssignmentLogger.logMethodEntry(this);
+        try {
+            long frames = lengthInFrames();
+            int frameSize = MixBus.FORMAT.getFrameSize();
+            WavFile.writeHeader(out, MixBus.FORMAT, frames * frameSize);
+
+            // Voices are handed to the bus just before the block they start in,
+            // so the bus's voice slots only ever hold clips that are sounding
+            List<Event> pending = new ArrayList<>(events);
+            pending.sort(Comparator.comparingLong(event -> event.frame));
+            int next = 0;
+            int maxVoices = Math.max(1, Integer.getInteger("sound.offline.voices", DEFAULT_MAX_VOICES));
+            VoiceManager voices = VoiceManager.unlimited(maxVoices);
+            MixBus bus = new MixBus(voices);
+            byte[] block = new byte[BLOCK_FRAMES * frameSize];
+            for (long done = 0; done < frames; done += BLOCK_FRAMES) {
+                int count = (int) Math.min(BLOCK_FRAMES, frames - done);
+                while (next < pending.size() && pending.get(next).frame < done + count) {
+                    Event event = pending.get(next++);
+                    bus.add(new Voice(event.sample, event.frame, event.gain));
+                }
+                bus.render(block, count);
+                out.write(block, 0, count * frameSize);
+            }
+            out.flush();
+            long cut = voices.stolenVoices() + voices.droppedVoices();
+            if (cut > 0) {
+                AssignmentLogger.logMessage("Offline render cut short or dropped %s clip(s): more than %s overlapped, raise -Dsound.offline.voices",
+                        cut, maxVoices);
+            }
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * Finds and loads one of an instrument's clips through the shared
+     * sample cache
+     */
+    static Sample sampleFor(Instrument instrument, int clip) throws IOException, UnsupportedAudioFileException {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            List<File> clips = SoundLibrary.clipsFor(instrument.getSoundPath());
+            if (clip < 0 || clip >= clips.size()) {
+                throw new IllegalArgumentException(instrument.getName() + " has no clip " + clip + " (it has " + clips.size() + ")");
+            }
+            return SampleCache.get(clips.get(clip)); //Always in the mixer format
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Checks a clip's file against the {@link LoudnessIndex} and returns its
+     * gain. The cached sample is shared with live playback, so the gain is
+     * handed to each voice rather than stored on the sample.
+     */
+    static float gainFor(Sample sample) {
+        AssignmentLogger.logStaticMethodEntry();
+        float gain = LoudnessIndex.resolve(sample.file); //Not played live, so checking the file here delays nothing
+        AssignmentLogger.logStaticMethodExit();
+        return gain;
+    }
+
+    /**
+     * Renders the hits given on the command line, e.g.
+     * {@code out.wav drum@0 piano@0.5:2}
+     */
+    public static void main(String[] args) {
+        AssignmentLogger.logMain();
+        if (args.length < 2) {
+            System.err.println("Usage: java instruments.OfflineRenderer <out.wav> <instrument@seconds[:clip]>...");
+            System.exit(2);
+        }
+        try {
+            OfflineRenderer renderer = new OfflineRenderer();
+            for (int i = 1; i < args.length; i++) {
+                String[] hit = args[i].split("[@:]");
+                if (hit.length < 2) {
+                    throw new IllegalArgumentException("Expected instrument@seconds[:clip] but got " + args[i]);
+                }
+                Instrument instrument = InstrumentFactory.fromInput(hit[0], Locale.ENGLISH);
+                renderer.add(Double.parseDouble(hit[1]), instrument, hit.length > 2 ? Integer.parseInt(hit[2]) : 0);
+            }
+            long start = System.nanoTime();
+            renderer.render(new File(args[0]));
+            System.out.printf("Rendered %.2f s of audio to %s in %d ms%n",
+                    renderer.lengthInFrames() / MixBus.FORMAT.getSampleRate(), args[0], (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException | UnsupportedAudioFileException | UnrecognizedInstrumentException | IllegalArgumentException e) {
+            AssignmentLogger.logCatchException(e);
+            System.err.println("Could not render: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
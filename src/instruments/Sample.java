@@ -0,0 +1,78 @@
+package instruments;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A sound file's PCM audio held in memory, ready to hand to a line without
+ * touching the file again. The audio is either decoded onto the heap or a
+ * read-only slice of the memory-mapped file (see {@link WavFile}).
+ */
+final class Sample {
+    final File file;
+    final String stem; //Instrument the clip belongs to, e.g. "Drum", for per-instrument voice limits
+    final AudioFormat format;
+    final ByteBuffer data; //Read-only, little-endian; only read with absolute gets so voices can share it
+    final int frames;
+    volatile float gain = 1f; //Playback gain from the LoudnessIndex, set by SampleCache and updated once the gain is resolved
+    private volatile byte[] array; //Audio on the heap: the decoded data, or a copy of mapped audio for Clip.open()
+    private volatile boolean copied = false; //True once array is a copy of mapped audio, which takes memory of its own
+
+    /**
+     * @param file   the file the sample was decoded from
+     * @param format the PCM format of {@code data}
+     * @param data   the decoded audio
+     */
+    Sample(File file, AudioFormat format, byte[] data) {
+        this(file, format, ByteBuffer.wrap(data).asReadOnlyBuffer());
+        this.array = data;
+    }
+
+    /**
+     * @param file   the file the sample was read from
+     * @param format the PCM format of {@code data}
+     * @param data   the audio, from position to limit
+     */
+    Sample(File file, AudioFormat format, ByteBuffer data) {
+        this.file = file;
+        this.stem = SoundLibrary.stemOf(file);
+        this.format = format;
+        this.data = data.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        this.frames = this.data.remaining() / format.getFrameSize();
+    }
+
+    /**
+     * @return the number of bytes of audio held in memory, counting a heap
+     * copy of mapped audio as well
+     */
+    int sizeInBytes() {
+        return copied ? 2 * data.remaining() : data.remaining();
+    }
+
+    /**
+     * Returns the audio as a byte array, for APIs such as Clip.open() that
+     * cannot take a buffer. A mapped sample is copied onto the heap the first
+     * time this is called, and the copy counts towards the cache's limit.
+     *
+     * @return the audio bytes; must not be modified
+     */
+    synchronized byte[] bytes() {
+        if (array == null) {
+            byte[] copy = new byte[data.remaining()];
+            data.get(0, copy);
+            SampleCache.attachCopy(this, copy);
+        }
+        return array;
+    }
+
+    /**
+     * Keeps a heap copy of mapped audio. Only called by the cache, under its
+     * lock, so its byte count never misses the copy.
+     */
+    void setCopy(byte[] copy) {
+        array = copy;
+        copied = true;
+    }
+}
@@ -0,0 +1,314 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps decoded sound files in memory so playing the same clip again does not
+ * reopen, parse and decode the file. Every sample is converted to the mixer
+ * format by {@link FormatNormalizer} as it is loaded, so cached samples never
+ * need converting when they are played. Entries are evicted least recently
+ * used first once the cache holds more than its byte limit, which can be set
+ * with -Dsound.cache.maxBytes (default 32 MB).
+ *
+ * {@link SoundLibrary} calls {@link #invalidate(File)} for every file that
+ * changes on disk, so an edited clip is never played from its old data. A
+ * file that was being loaded while any file changed is loaded again rather
+ * than cached, as it may have been read before the change.
+ *
+ * The limit counts the heap copy a mapped sample gets when it is played
+ * through a Clip (see {@link Sample#bytes()}) as well as the sample itself.
+ *
+ * All the clips for an instrument can be loaded ahead of time, in parallel on
+ * background threads, with {@link #preload(String, boolean)}, which also
+ * checks their {@link LoudnessIndex} gains.
+ */
+final class SampleCache {
+    static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    private static final boolean MAP_FILES = Boolean.parseBoolean(System.getProperty("sound.mmap", "true"));
+
+    private static final Map<File, Sample> samples = new LinkedHashMap<>(16, 0.75f, true); //Access order, eldest first
+    private static final Set<String> preloadedStems = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger preloadThreads = new AtomicInteger();
+    private static final ExecutorService preloader = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+        Thread thread = new Thread(task, "SoundPlayer-preload-" + preloadThreads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static long maxBytes = Long.getLong("sound.cache.maxBytes", DEFAULT_MAX_BYTES);
+    private static long cachedBytes = 0;
+    private static long generation = 0; //Changes counted by invalidate(), so a load that overlapped one is not cached
+
+    private SampleCache() {
+    }
+
+    /**
+     * Returns the decoded sample for a file, decoding it on first use.
+     *
+     * @param file the WAV file
+     * @return the sample, in the mixer format, with its gain from the
+     * {@link LoudnessIndex} if it has been resolved
+     * @throws IOException                   if the file cannot be read
+     * @throws UnsupportedAudioFileException if the file is not a supported
+     *                                       audio format
+     */
+    static Sample get(File file) throws IOException, UnsupportedAudioFileException {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            File key = file.getAbsoluteFile();
+            while (true) {
+                long loadedAt;
+                synchronized (samples) {
+                    Sample cached = samples.get(key);
+                    if (cached != null) {
+                        return cached;
+                    }
+                    loadedAt = generation;
+                }
+                Sample sample = load(key); //Outside the lock so other clips can still be fetched meanwhile
+                sample.gain = LoudnessIndex.gainFor(key);
+                if (add(sample, loadedAt)) {
+                    return sample;
+                }
+                // A file changed while this one was loading, and it may have been this one
+            }
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Reads a file and converts it to the mixer format without caching it,
+     * for tools that go through many files once.
+     *
+     * @param file the sound file
+     * @return the sample, in the mixer format
+     * @throws IOException                   if the file cannot be read
+     * @throws UnsupportedAudioFileException if the file is not a supported
+     *                                       audio format
+     */
+    static Sample load(File file) throws IOException, UnsupportedAudioFileException {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            return FormatNormalizer.normalize(decode(file));
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Resolves the {@link LoudnessIndex} gain of every clip for a stem on the
+     * background threads and, if asked, loads the clips too, one task per
+     * file so they are decoded and converted in parallel. Files that will be
+     * streamed are never loaded. Only the first call for each stem does
+     * anything.
+     *
+     * @param stem   the instrument's sound stem, e.g. "Guitar"
+     * @param decode whether to load the clips as well as their gains
+     */
+    static void preload(String stem, boolean decode) {
+        AssignmentLogger.logStaticMethodEntry();
+        if (preloadedStems.add(stem)) {
+            for (File file : SoundLibrary.clipsFor(stem)) {
+                boolean load = decode && !SoundPlayer.streams(file); //Streamed files are played without loading them whole
+                preloader.execute(() -> {
+                    regain(file, LoudnessIndex.resolve(file)); //In case it was played before the gain was known
+                    if (load) {
+                        try {
+                            get(file);
+                        } catch (IOException | UnsupportedAudioFileException e) {
+                            AssignmentLogger.logCatchException(e);
+                        }
+                    }
+                });
+            }
+        }
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * Forgets a file that has been changed or deleted, so it is never played
+     * from its old data or an old mapping. If it still exists, its gain is
+     * checked again in the background, and it is loaded again if it was
+     * cached.
+     *
+     * @param file the sound file
+     */
+    static void invalidate(File file) {
+        AssignmentLogger.logStaticMethodEntry();
+        File key = file.getAbsoluteFile();
+        Sample removed;
+        synchronized (samples) {
+            generation++;
+            removed = samples.remove(key);
+            if (removed != null) {
+                cachedBytes -= removed.sizeInBytes();
+            }
+        }
+        if (!key.isFile()) {
+            LoudnessIndex.forget(key);
+        } else {
+            boolean load = removed != null && !SoundPlayer.streams(key);
+            preloader.execute(() -> {
+                LoudnessIndex.resolve(key);
+                if (load) {
+                    try {
+                        get(key);
+                    } catch (IOException | UnsupportedAudioFileException e) {
+                        AssignmentLogger.logCatchException(e); //Half written; the next change is picked up too
+                    }
+                }
+            });
+        }
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * Sets the gain of a cached sample, if the file is cached
+     */
+    private static void regain(File file, float gain) {
+        AssignmentLogger.logStaticMethodEntry();
+        synchronized (samples) {
+            Sample sample = samples.get(file.getAbsoluteFile());
+            if (sample != null) {
+                sample.gain = gain;
+            }
+        }
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * Changes the memory limit, evicting samples if the cache is now over it.
+     *
+     * @param bytes the most decoded audio to keep, in bytes
+     */
+    static void setMaxBytes(long bytes) {
+        AssignmentLogger.logStaticMethodEntry();
+        synchronized (samples) {
+            maxBytes = bytes;
+            evict();
+        }
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * @return the bytes of decoded audio currently held
+     */
+    static long cachedBytes() {
+        AssignmentLogger.logStaticMethodEntry();
+        long bytes;
+        synchronized (samples) {
+            bytes = cachedBytes;
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return bytes;
+    }
+
+    /**
+     * Caches a loaded sample unless a file changed since the load began.
+     *
+     * @param sample   the loaded sample
+     * @param loadedAt the generation when the load began
+     * @return false if the sample may hold old data and was not cached
+     */
+    private static boolean add(Sample sample, long loadedAt) {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            synchronized (samples) {
+                if (generation != loadedAt) {
+                    return false;
+                }
+                Sample previous = samples.put(sample.file, sample);
+                if (previous != null) {
+                    cachedBytes -= previous.sizeInBytes(); //Decoded twice at the same time, keep the newest
+                }
+                cachedBytes += sample.sizeInBytes();
+                evict();
+                return true;
+            }
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Gives a sample its heap copy and, if the sample is cached, counts the
+     * copy towards the limit. The copy is set under the lock so that removing
+     * the sample always takes away the same bytes that were added.
+     *
+     * @param sample the sample the copy was made from
+     * @param copy   its audio on the heap
+     */
+    static void attachCopy(Sample sample, byte[] copy) {
+        AssignmentLogger.logStaticMethodEntry();
+        synchronized (samples) {
+            boolean cached = samples.get(sample.file) == sample;
+            sample.setCopy(copy);
+            if (cached) {
+                cachedBytes += copy.length;
+                evict();
+            }
+        }
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * Drops least recently used samples until the cache is within its limit.
+     * Must hold the lock on samples.
+     */
+    private static void evict() {
+        AssignmentLogger.logStaticMethodEntry();
+        Iterator<Sample> eldest = samples.values().iterator();
+        while (cachedBytes > maxBytes && eldest.hasNext()) {
+            cachedBytes -= eldest.next().sizeInBytes();
+            eldest.remove();
+        }
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * Loads a file's audio. Uncompressed WAV files are memory-mapped by
+     * {@link WavFile} without copying (-Dsound.mmap=false turns this off);
+     * anything else is decoded to PCM by Java Sound, with compressed encodings
+     * converted to signed PCM so any line can play the result.
+     */
+    private static Sample decode(File file) throws IOException, UnsupportedAudioFileException {
+        AssignmentLogger.logStaticMethodEntry();
+        if (MAP_FILES && file.getName().toLowerCase().endsWith(".wav")) {
+            try {
+                Sample mapped = WavFile.map(file);
+                AssignmentLogger.logStaticMethodExit();
+                return mapped;
+            } catch (IOException e) {
+                AssignmentLogger.logCatchException(e); //Not plain PCM, let Java Sound try
+            }
+        }
+        try (AudioInputStream source = AudioSystem.getAudioInputStream(file)) {
+            AudioFormat format = source.getFormat();
+            AudioInputStream pcm = source;
+            if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+                    && !AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding())) {
+                format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+                        format.getChannels(), format.getChannels() * 2, format.getSampleRate(), false);
+                pcm = AudioSystem.getAudioInputStream(format, source);
+            }
+            return new Sample(file, format, pcm.readAllBytes());
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sound file played while it is still being read, for clips too large to
+ * load whole before the first frame sounds. A reader thread decodes the file
+ * in the mixer format into a small ring buffer and the {@link MixBus} mixes
+ * from the other end, so playback starts as soon as the first chunk is in,
+ * however long the file is, and memory use is the ring buffer's size.
+ *
+ * There is one reader and one mixing thread per stream, so the ring needs no
+ * lock: each side only moves its own counter.
+ */
+final class SampleStream implements Runnable {
+    static final int DEFAULT_BUFFER_FRAMES = 32 * 1024; //About 0.75 s at 44.1 kHz
+    private static final int CHUNK_FRAMES = 4 * 1024;
+    private static final AtomicInteger readerThreads = new AtomicInteger();
+    private static final ExecutorService readers = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "SoundPlayer-stream-" + readerThreads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    final File file;
+    final String stem; //Instrument the clip belongs to, see Sample.stem
+    final float gain; //Playback gain from the LoudnessIndex
+    final byte[] ring; //Frames in the mixer format, read from index read % capacity
+    final int capacity; //In frames
+    private volatile long written = 0; //Frames the reader has put in the ring
+    private volatile long read = 0; //Frames the mixer has taken out
+    private volatile boolean ended = false;
+    private volatile boolean closed = false;
+    private volatile Thread reader;
+
+    private SampleStream(File file, int bufferFrames) {
+        AssignmentLogger.logConstructor(this);
+        this.file = file;
+        this.stem = SoundLibrary.stemOf(file);
+        this.gain = LoudnessIndex.gainFor(file);
+        this.capacity = Math.max(CHUNK_FRAMES, bufferFrames);
+        this.ring = new byte[capacity * MixBus.FORMAT.getFrameSize()];
+    }
+
+    /**
+     * Starts reading a file on a reader thread. Returns immediately.
+     *
+     * @param file         the sound file
+     * @param bufferFrames how far ahead of playback the reader may get
+     * @return the stream, to be played by a {@link Voice}
+     */
+    static SampleStream open(File file, int bufferFrames) {
+        AssignmentLogger.logStaticMethodEntry();
+        SampleStream stream = new SampleStream(file, bufferFrames);
+        readers.execute(stream);
+        AssignmentLogger.logStaticMethodExit();
+        return stream;
+    }
+
+    /**
+     * Frames ready to be mixed. Not logged: called by the render thread for
+     * every block.
+     *
+     * @return frames in the ring that have not been mixed yet
+     */
+    int available() {
+        return (int) (written - read);
+    }
+
+    /**
+     * Index in {@link #ring} of the next unmixed frame. Not logged, see
+     * {@link #available()}.
+     *
+     * @return a frame index from 0 to capacity - 1
+     */
+    int readIndex() {
+        return (int) (read % capacity);
+    }
+
+    /**
+     * Marks frames as mixed, making room for the reader. Not logged, see
+     * {@link #available()}.
+     *
+     * @param frames how many frames were mixed, at most {@link #available()}
+     */
+    void consumed(int frames) {
+        read += frames;
+        Thread waiting = reader;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    /**
+     * Not logged, see {@link #available()}.
+     *
+     * @return true once the whole file has been read and mixed, or the
+     * stream was closed
+     */
+    boolean finished() {
+        return closed || (ended && written == read);
+    }
+
+    /**
+     * Stops the reader. The stream then counts as finished.
+     */
+    void close() {
+        AssignmentLogger.logMethodEntry(this);
+        closed = true;
+        Thread waiting = reader;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * Reads the file into the ring, waiting whenever it is full.
+     */
+    @Override
+    public void run() {
+        AssignmentLogger.logMethodEntry(this);
+        reader = Thread.currentThread();
+        int frameSize = MixBus.FORMAT.getFrameSize();
+        try (AudioInputStream in = openPcm(file)) {
+            byte[] chunk = new byte[CHUNK_FRAMES * frameSize];
+            int bytes;
+            while (!closed && (bytes = in.readNBytes(chunk, 0, chunk.length)) > 0) {
+                int frames = bytes / frameSize; //A partial frame can only be the end of the file
+                for (int done = 0; done < frames && !closed;) {
+                    int space = capacity - available();
+                    if (space == 0) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10)); //Woken by consumed()
+                        continue;
+                    }
+                    int count = Math.min(space, frames - done);
+                    int at = (int) (written % capacity);
+                    int first = Math.min(count, capacity - at); //Up to the end of the ring, then wrap
+                    System.arraycopy(chunk, done * frameSize, ring, at * frameSize, first * frameSize);
+                    System.arraycopy(chunk, (done + first) * frameSize, ring, 0, (count - first) * frameSize);
+                    written += count; //Publishes the copied frames to the mixer
+                    done += count;
+                }
+            }
+        } catch (IOException | UnsupportedAudioFileException | IllegalArgumentException e) {
+            AssignmentLogger.logCatchException(e); //Whatever was read still plays
+        } finally {
+            ended = true;
+            reader = null;
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * Opens a file as a stream in the mixer format, converting on the fly.
+     * Compressed encodings are decoded to signed PCM first, as the Java Sound
+     * converters cannot always go straight from them to the mixer format.
+     */
+    private static AudioInputStream openPcm(File file) throws IOException, UnsupportedAudioFileException {
+        AssignmentLogger.logStaticMethodEntry();
+        AudioInputStream source = AudioSystem.getAudioInputStream(file);
+        try {
+            AudioFormat format = source.getFormat();
+            if (FormatNormalizer.isCanonical(format)) {
+                return source;
+            }
+            if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+                    && !AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding())
+                    && !AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding())) {
+                source = AudioSystem.getAudioInputStream(new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+                        format.getChannels(), format.getChannels() * 2, format.getSampleRate(), false), source);
+            }
+            return AudioSystem.getAudioInputStream(MixBus.FORMAT, source);
+        } catch (IllegalArgumentException e) {
+            source.close();
+            throw new UnsupportedAudioFileException(file + " cannot be converted to " + MixBus.FORMAT);
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the WAV files in resources/sounds, grouped by stem: the file name
+ * without its extension and trailing number, so Guitar1.wav and Guitar2.wav
+ * both belong to "Guitar". Each stem's clips are sorted by that number.
+ *
+ * The directory is scanned once, on first use, into an immutable map, so a
+ * lookup costs the same however many files there are. A background thread
+ * watches the directory and swaps in a fresh index whenever files are added,
+ * removed or renamed, and has {@link SampleCache} forget every file that was
+ * changed or removed.
+ */
+public final class SoundLibrary {
+    static final Path SOUNDS_DIR = Paths.get("resources", "sounds");
+    private static final long SETTLE_MILLIS = 100; //Changes this close together are picked up by one rescan
+
+    private static volatile Map<String, List<File>> byStem = null; //Null until first used
+    private static WatchService watcher = null;
+
+    private SoundLibrary() {
+    }
+
+    /**
+     * Returns the clips for a stem, in order of their number.
+     *
+     * @param stem a stem such as "Guitar", or a sound path such as
+     *             "resources/sounds/Guitar"
+     * @return the matching files, empty if there are none; never modified
+     */
+    public static List<File> clipsFor(String stem) {
+        AssignmentLogger.logStaticMethodEntry();
+        List<File> clips = index().getOrDefault(stemOf(stem), Collections.emptyList());
+        AssignmentLogger.logStaticMethodExit();
+        return clips;
+    }
+
+    /**
+     * @param stem a stem or sound path, as for {@link #clipsFor(String)}
+     * @return true if at least one clip exists for it
+     */
+    public static boolean hasClipsFor(String stem) {
+        AssignmentLogger.logStaticMethodEntry();
+        boolean found = !clipsFor(stem).isEmpty();
+        AssignmentLogger.logStaticMethodExit();
+        return found;
+    }
+
+    /**
+     * Reduces a sound path like "resources/sounds/Guitar" (either separator)
+     * to its stem, "Guitar". A bare stem is returned unchanged.
+     */
+    static String stemOf(String soundPath) {
+        AssignmentLogger.logStaticMethodEntry();
+        String stem = soundPath == null ? "" : soundPath;
+        int cut = Math.max(stem.lastIndexOf('/'), stem.lastIndexOf('\\'));
+        AssignmentLogger.logStaticMethodExit();
+        return stem.substring(cut + 1);
+    }
+
+    /**
+     * Reduces a sound file to the stem it is indexed under, e.g.
+     * ".../Guitar2.wav" to "Guitar".
+     */
+    static String stemOf(File file) {
+        AssignmentLogger.logStaticMethodEntry();
+        String base = file.getName();
+        if (base.toLowerCase().endsWith(".wav")) {
+            base = base.substring(0, base.length() - 4);
+        }
+        String stem = base.substring(0, numberStart(base)).intern(); //Shared by every clip of the stem, so voices compare it cheaply
+        AssignmentLogger.logStaticMethodExit();
+        return stem;
+    }
+
+    /**
+     * Returns the index, building it and starting the watcher on first use
+     */
+    private static Map<String, List<File>> index() {
+        AssignmentLogger.logStaticMethodEntry();
+        Map<String, List<File>> index = byStem;
+        if (index == null) {
+            synchronized (SoundLibrary.class) {
+                if (byStem == null) {
+                    byStem = scan();
+                    startWatching();
+                }
+                index = byStem;
+            }
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return index;
+    }
+
+    /**
+     * Lists the directory and groups its WAV files by stem
+     */
+    private static Map<String, List<File>> scan() {
+        AssignmentLogger.logStaticMethodEntry();
+        Map<String, List<File>> groups = new HashMap<>();
+        if (Files.isDirectory(SOUNDS_DIR)) {
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(SOUNDS_DIR)) {
+                for (Path path : dir) {
+                    String name = path.getFileName().toString();
+                    if (name.toLowerCase().endsWith(".wav")) {
+                        String base = name.substring(0, name.length() - 4);
+                        groups.computeIfAbsent(base.substring(0, numberStart(base)), k -> new ArrayList<>()).add(path.toFile());
+                    }
+                }
+            } catch (IOException e) {
+                AssignmentLogger.logCatchException(e);
+            }
+        }
+        Map<String, List<File>> index = new HashMap<>();
+        for (Map.Entry<String, List<File>> group : groups.entrySet()) {
+            List<File> clips = group.getValue();
+            clips.sort(Comparator.comparingLong(SoundLibrary::clipNumber).thenComparing(File::getName));
+            index.put(group.getKey(), List.copyOf(clips));
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return Map.copyOf(index);
+    }
+
+    /**
+     * @return the index where the trailing digits of a name begin
+     */
+    private static int numberStart(String base) {
+        AssignmentLogger.logStaticMethodEntry();
+        int start = base.length();
+        while (start > 0 && Character.isDigit(base.charAt(start - 1))) {
+            start--;
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return start;
+    }
+
+    /**
+     * @return the number at the end of a clip's name, or 0 if it has none
+     */
+    private static long clipNumber(File clip) {
+        AssignmentLogger.logStaticMethodEntry();
+        String base = clip.getName().substring(0, clip.getName().length() - 4);
+        String digits = base.substring(numberStart(base));
+        long number = digits.isEmpty() || digits.length() > 18 ? 0 : Long.parseLong(digits);
+        AssignmentLogger.logStaticMethodExit();
+        return number;
+    }
+
+    /**
+     * Starts the thread that rebuilds the index when the directory changes.
+     * Without the directory there is nothing to watch and the index stays
+     * empty.
+     */
+    private static void startWatching() {
+        AssignmentLogger.logStaticMethodEntry();
+        if (watcher == null && Files.isDirectory(SOUNDS_DIR)) {
+            try {
+                watcher = FileSystems.getDefault().newWatchService();
+                SOUNDS_DIR.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                Thread thread = new Thread(SoundLibrary::watch, "SoundLibrary-watch");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                AssignmentLogger.logCatchException(e);
+            }
+        }
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * Waits for directory changes and rescans after each burst of them, then
+     * invalidates the cached copies of the files that changed
+     */
+    private static void watch() {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Set<File> changed = new HashSet<>();
+                boolean overflow = false;
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true; //Events were lost, so any file may have changed
+                        } else {
+                            changed.add(SOUNDS_DIR.resolve((Path) event.context()).toFile());
+                        }
+                    }
+                    key.reset();
+                    key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                Map<String, List<File>> before = byStem;
+                byStem = scan();
+                if (overflow) {
+                    for (List<File> clips : before.values()) {
+                        changed.addAll(clips);
+                    }
+                    for (List<File> clips : byStem.values()) {
+                        changed.addAll(clips);
+                    }
+                }
+                for (File file : changed) {
+                    if (file.getName().toLowerCase().endsWith(".wav")) {
+                        SampleCache.invalidate(file);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            AssignmentLogger.logCatchException(e);
+        }
+        AssignmentLogger.logStaticMethodExit();
+    }
+}
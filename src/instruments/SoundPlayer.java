@@ -2,14 +2,11 @@ package instruments;
 
 import logging.AssignmentLogger;
 
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
@@ -19,16 +16,22 @@ import java.util.Random;
  */
 class SoundPlayer {
     private static final Random RNG = new Random();
+    private static final ClipPool CLIPS = new ClipPool(Integer.getInteger("sound.clips.max", ClipPool.DEFAULT_MAX_CLIPS));
+    private static MixerEngine mixer = null; //Opened on first play
+    private static boolean mixerUnavailable = !"mixer".equals(System.getProperty("sound.engine", "mixer")); //-Dsound.engine=clip to use clips only
+    static final long DEFAULT_STREAM_MIN_BYTES = 512 * 1024;
+    private static final long STREAM_MIN_BYTES = Long.getLong("sound.stream.minBytes", DEFAULT_STREAM_MIN_BYTES);
+    private static final int STREAM_BUFFER_FRAMES = Integer.getInteger("sound.stream.bufferFrames", SampleStream.DEFAULT_BUFFER_FRAMES);
 
     /**
-     * Picks a random WAV in resources/sounds whose filename starts with the
-     * provided stem and plays it via a {@link Clip}.
+     * Picks a random WAV for the provided stem from the {@link SoundLibrary}
+     * and plays it.
      *
      * @param stem filename prefix (e.g. "Guitar")
      */
     static void playRandomClipByStem(String stem) {
         AssignmentLogger.logStaticMethodEntry();
-        List<File> candidates = findMatchingSounds(stem);
+        List<File> candidates = SoundLibrary.clipsFor(stem);
         if (candidates.isEmpty()) {
             AssignmentLogger.logStaticMethodExit();
             return;
@@ -39,36 +42,86 @@ class SoundPlayer {
     }
 
     /**
-     * Returns all WAV files in resources/sounds that start with the given stem.
+     * Starts decoding every clip for a stem in the background, so the first
+     * Play does not wait on the disk. -Dsound.preload=false switches the
+     * decoding off; the clips' loudness gains are still checked in the
+     * background.
+     *
+     * @param stem filename prefix (e.g. "Guitar")
      */
-    private static List<File> findMatchingSounds(String stem) {
+    static void preload(String stem) {
         AssignmentLogger.logStaticMethodEntry();
-        List<File> matches = new ArrayList<>();
-        File dir = new File("resources/sounds");
-        File[] files = dir.listFiles((_, name) -> name.startsWith(stem) && name.toLowerCase().endsWith(".wav"));
-        if (files != null) {
-            for (File f : files) {
-                matches.add(f);
-            }
+        SampleCache.preload(stem, Boolean.parseBoolean(System.getProperty("sound.preload", "true")));
+        AssignmentLogger.logStaticMethodExit();
+    }
+
+    /**
+     * Whether a file is played as a {@link SampleStream} rather than loaded
+     * whole: files of -Dsound.stream.minBytes (default 512 KB) or more are
+     * streamed when the mixer is in use. Pooled clips always load the whole
+     * file.
+     *
+     * @param file the sound file
+     * @return true if playing it streams it
+     */
+    static boolean streams(File file) {
+        AssignmentLogger.logStaticMethodEntry();
+        boolean large = file.length() >= STREAM_MIN_BYTES;
+        boolean mixing;
+        synchronized (SoundPlayer.class) {
+            mixing = !mixerUnavailable;
         }
         AssignmentLogger.logStaticMethodExit();
-        return matches;
+        return large && mixing;
     }
 
     /**
-     * Opens and starts the given WAV file as a {@link Clip}. Playback starts
+     * Plays the given WAV file through the {@link MixerEngine}, or on a pooled
+     * {@link Clip} if the mixer is switched off or cannot open a line. Large
+     * files (see {@link #streams(File)}) are streamed, so they start as quickly
+     * as short ones and only a small buffer of them is in memory. Other files
+     * are decoded and converted to the mixer format once and kept in the
+     * {@link SampleCache}, so repeat plays skip the disk. Playback starts
      * asynchronously and this method returns immediately.
      */
     private static void playClipFromFile(File file) {
         AssignmentLogger.logStaticMethodEntry();
-        try (AudioInputStream audioIn = AudioSystem.getAudioInputStream(file)) {
-            Clip clip = AudioSystem.getClip();
-            clip.open(audioIn);
-            clip.start();
+        try {
+            MixerEngine engine = streams(file) ? mixer() : null;
+            if (engine != null) {
+                engine.play(SampleStream.open(file, STREAM_BUFFER_FRAMES));
+                return;
+            }
+            Sample sample = SampleCache.get(file);
+            engine = mixer();
+            if (engine != null) {
+                engine.play(sample);
+            } else {
+                CLIPS.play(sample);
+            }
         } catch (UnsupportedAudioFileException | IOException | LineUnavailableException e) {
             AssignmentLogger.logCatchException(e);
         } finally {
             AssignmentLogger.logStaticMethodExit();
         }
     }
+
+    /**
+     * Returns the shared mixer engine, opening it on first use.
+     *
+     * @return the engine, or null if it is switched off or no line is available
+     */
+    static synchronized MixerEngine mixer() {
+        AssignmentLogger.logStaticMethodEntry();
+        if (mixer == null && !mixerUnavailable) {
+            try {
+                mixer = new MixerEngine(Integer.getInteger("sound.mixer.blocks", MixerEngine.DEFAULT_BLOCKS), VoiceManager.live());
+            } catch (LineUnavailableException e) {
+                AssignmentLogger.logCatchException(e);
+                mixerUnavailable = true;
+            }
+        }
+        AssignmentLogger.logStaticMethodExit();
+        return mixer;
+    }
 }
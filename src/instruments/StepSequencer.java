@@ -0,0 +1,284 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a looping pattern of steps at a fixed tempo, e.g. 16 sixteenth notes
+ * at 200 BPM, with one track per instrument clip.
+ *
+ * <pre>
+ *   StepSequencer beat = new StepSequencer(200, 4, 16)
+ *       .track(new Drum(), 0,   "x...x...x...x...")
+ *       .track(new Piano(), 2,  "..x...x...x...x.")
+ *       .track(new Guitar(), 1, "x.x.x.x.x.x.x.x.");
+ *   beat.play(8);
+ * </pre>
+ *
+ * Every hit is placed on an exact frame of the mixer timeline, computed from
+ * its step number rather than by adding up step lengths, so the pattern
+ * neither jitters with thread scheduling nor drifts over many loops. Live
+ * playback adds each hit to the {@link MixerEngine} from its render thread,
+ * just before the block the hit starts in; {@link #renderTo} places the same
+ * hits in an {@link OfflineRenderer}, and {@link #recordLive} runs the live
+ * path block by block without an output line.
+ */
+public final class StepSequencer {
+
+    /**
+     * One instrument clip and the steps it is played on
+     */
+    private static final class Track {
+        final Sample sample;
+        final float gain; //Resolved when the track is added, so the render thread never checks the file
+        final boolean[] hits;
+
+        Track(Sample sample, float gain, boolean[] hits) {
+            this.sample = sample;
+            this.gain = gain;
+            this.hits = hits;
+        }
+    }
+
+    /**
+     * Hands one run of the pattern to the mixer, a block at a time
+     */
+    private final class Cursor implements MixerEngine.Feeder {
+        private final Track[] tracks;
+        private final long lastStep; //Exclusive, Long.MAX_VALUE to loop until stopped
+        private long origin = -1; //Bus frame of step 0, set by the first block
+        private long step = 0; //Next step to hand over
+        private long stepFrame = 0; //Frame of that step from origin, worked out once per step
+        volatile boolean stopped = false;
+
+        Cursor(Track[] tracks, int loops) {
+            this.tracks = tracks;
+            this.lastStep = loops > 0 ? (long) loops * steps : Long.MAX_VALUE;
+        }
+
+        /**
+         * Not logged: this runs on the mixer's render thread for every block.
+         */
+        @Override
+        public boolean feed(MixBus bus, long blockStart, int frames) {
+            if (stopped) {
+                return false;
+            }
+            if (origin < 0) {
+                origin = blockStart;
+            }
+            long blockEnd = blockStart + frames;
+            while (step < lastStep && origin + stepFrame < blockEnd) {
+                int index = (int) (step % steps);
+                for (Track track : tracks) {
+                    if (track.hits[index]) {
+                        bus.enqueue(new Voice(track.sample, origin + stepFrame, track.gain));
+                    }
+                }
+                stepFrame = stepStart(++step);
+            }
+            return step < lastStep;
+        }
+    }
+
+    private final double bpm;
+    private final int stepsPerBeat;
+    private final int steps;
+    private final List<Track> tracks = new ArrayList<>();
+    private Cursor playing = null;
+
+    /**
+     * Creates a pattern with no tracks.
+     *
+     * @param bpm          tempo in beats (quarter notes) per minute
+     * @param stepsPerBeat steps in one beat, 4 for sixteenth notes
+     * @param steps        length of the pattern in steps
+     */
+    public StepSequencer(double bpm, int stepsPerBeat, int steps) {
+        if (!(bpm > 0) || stepsPerBeat < 1 || steps < 1) {
+            throw new IllegalArgumentException("Invalid pattern: " + bpm + " BPM, " + stepsPerBeat + " steps per beat, " + steps + " steps");
+        }
+        this.bpm = bpm;
+        this.stepsPerBeat = stepsPerBeat;
+        this.steps = steps;
+        AssignmentLogger.logConstructor(this); //Once the fields are set, so the logged details are complete
+    }
+
+    /**
+     * Adds a track that plays one clip of an instrument. The clip is loaded
+     * now, so playback never waits on the disk.
+     *
+     * @param instrument the instrument whose clip is played
+     * @param clip       which of the instrument's clips, counting from 0 in
+     *                   file number order (Drum1.wav is 0)
+     * @param pattern    one character per step: {@code x} plays the clip and
+     *                   {@code .} or {@code -} is a rest; spaces and
+     *                   {@code |} can be used to group steps
+     * @return this sequencer
+     * @throws IOException                   if the clip cannot be read
+     * @throws UnsupportedAudioFileException if the clip cannot be mixed
+     */
+    public synchronized StepSequencer track(Instrument instrument, int clip, String pattern) throws IOException, UnsupportedAudioFileException {
+        AssignmentLogger.logMethodEntry(this);
+        try {
+            String cells = pattern.replaceAll("[\\s|]", "");
+            if (cells.length() != steps) {
+                throw new IllegalArgumentException("Pattern \"" + pattern + "\" has " + cells.length() + " steps, expected " + steps);
+            }
+            boolean[] hits = new boolean[steps];
+            for (int i = 0; i < steps; i++) {
+                char c = cells.charAt(i);
+                if (c == 'x' || c == 'X') {
+                    hits[i] = true;
+                } else if (c != '.' && c != '-') {
+                    throw new IllegalArgumentException("Unexpected '" + c + "' in pattern \"" + pattern + "\", use x for a hit and . for a rest");
+                }
+            }
+            Sample sample = OfflineRenderer.sampleFor(instrument, clip);
+            tracks.add(new Track(sample, OfflineRenderer.gainFor(sample), hits));
+            return this;
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * The frame at which a step starts, counted from the start of the first
+     * loop. Steps keep counting across loops, so step {@code steps} is the
+     * start of the second loop.
+     *
+     * @param step the step number, from 0
+     * @return the step's start, rounded to the nearest frame
+     */
+    public long frameOfStep(long step) {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return stepStart(step);
+    }
+
+    /**
+     * Same as {@link #frameOfStep(long)}. Not logged: the cursor calls it on
+     * the render thread.
+     */
+    private long stepStart(long step) {
+        return Math.round(step * 60.0 * MixBus.FORMAT.getSampleRate() / (bpm * stepsPerBeat));
+    }
+
+    /**
+     * Places the hits of a number of loops in an offline render.
+     *
+     * @param renderer   the render to add to
+     * @param startFrame the output frame of the first step
+     * @param loops      how many times to play the pattern
+     * @return the renderer
+     */
+    public synchronized OfflineRenderer renderTo(OfflineRenderer renderer, long startFrame, int loops) {
+        AssignmentLogger.logMethodEntry(this);
+        for (long step = 0; step < (long) loops * steps; step++) {
+            int index = (int) (step % steps);
+            for (Track track : tracks) {
+                if (track.hits[index]) {
+                    renderer.addAtFrame(startFrame + frameOfStep(step), track.sample, track.gain);
+                }
+            }
+        }
+        AssignmentLogger.logMethodExit(this);
+        return renderer;
+    }
+
+    /**
+     * Runs loops of the pattern through a mixer bus the way {@link #play(int)}
+     * does, handing hits over block by block from the same cursor, but writes
+     * the mix as WAV data (header and audio) instead of sending it to an
+     * output line. Useful for checking live timing without a sound device.
+     * As in live playback, the first step starts on a mixer block boundary:
+     * the first 128-frame block at or after {@code startFrame}. The stream
+     * is not closed.
+     *
+     * @param out        where the WAV data is written
+     * @param startFrame the earliest output frame for the first step
+     * @param loops      how many times to play the pattern, at least 1
+     * @throws IOException if writing fails
+     */
+    public synchronized void recordLive(OutputStream out, long startFrame, int loops) throws IOException {
+        AssignmentLogger.logMethodEntry(this);
+        try {
+            if (loops < 1 || startFrame < 0) {
+                throw new IllegalArgumentException("Cannot record " + loops + " loops from frame " + startFrame);
+            }
+            Track[] playing = tracks.toArray(new Track[0]);
+            long origin = (startFrame + MixerEngine.BLOCK_FRAMES - 1) / MixerEngine.BLOCK_FRAMES * MixerEngine.BLOCK_FRAMES;
+            long frames = origin;
+            for (long step = 0; step < (long) loops * steps; step++) {
+                for (Track track : playing) {
+                    if (track.hits[(int) (step % steps)]) {
+                        frames = Math.max(frames, origin + stepStart(step) + track.sample.frames);
+                    }
+                }
+            }
+            int frameSize = MixBus.FORMAT.getFrameSize();
+            WavFile.writeHeader(out, MixBus.FORMAT, frames * frameSize);
+
+            MixBus bus = new MixBus();
+            Cursor cursor = new Cursor(playing, loops);
+            boolean feeding = true;
+            byte[] block = new byte[MixerEngine.BLOCK_FRAMES * frameSize];
+            for (long blockStart = 0; blockStart < frames; blockStart += MixerEngine.BLOCK_FRAMES) {
+                int count = (int) Math.min(MixerEngine.BLOCK_FRAMES, frames - blockStart);
+                if (feeding && blockStart >= origin) {
+                    feeding = cursor.feed(bus, blockStart, count);
+                }
+                bus.render(block, count);
+                out.write(block, 0, count * frameSize);
+            }
+            out.flush();
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * Starts playing the pattern on the mixer from the next block. Returns
+     * immediately; a pattern that is already playing is stopped first.
+     *
+     * @param loops how many times to play the pattern, or 0 to repeat until
+     *              {@link #stop()}
+     * @throws LineUnavailableException if the mixer is switched off
+     *                                  (-Dsound.engine=clip) or has no output
+     *                                  line; pooled clips cannot start on an
+     *                                  exact frame
+     */
+    public synchronized void play(int loops) throws LineUnavailableException {
+        AssignmentLogger.logMethodEntry(this);
+        try {
+            MixerEngine engine = SoundPlayer.mixer();
+            if (engine == null) {
+                throw new LineUnavailableException("The step sequencer needs the mixer engine, which is switched off or has no output line");
+            }
+            stop();
+            playing = new Cursor(tracks.toArray(new Track[0]), loops);
+            engine.addFeeder(playing);
+        } finally {
+            AssignmentLogger.logMethodExit(this);
+        }
+    }
+
+    /**
+     * Stops handing hits to the mixer. Hits that have already started ring
+     * out.
+     */
+    public synchronized void stop() {
+        AssignmentLogger.logMethodEntry(this);
+        if (playing != null) {
+            playing.stopped = true; //The render thread removes it at the next block
+            playing = null;
+        }
+        AssignmentLogger.logMethodExit(this);
+    }
+}
@@ -0,0 +1,52 @@
+package instruments;
+
+/**
+ * One sample being played by a {@link MixBus}: which sample, where on the
+ * bus timeline it starts and how far it has got. A voice plays either a
+ * sample held in memory or a {@link SampleStream} that is still being read.
+ */
+final class Voice {
+    final Sample sample; //Null for a streamed voice
+    final SampleStream stream; //Null for a sample in memory
+    final String group; //Instrument stem, interned, for per-instrument voice limits
+    final long startFrame; //Bus frame to start at; anything already rendered means "as soon as possible"
+    float gain; //Starts at the clip's gain from the LoudnessIndex
+    int position = 0; //Next frame of the sample to mix, or frames of the stream mixed so far
+    int fadeLeft = -1; //Frames until silent once stolen, -1 while playing normally
+    int level = 0; //Peak of the last block mixed, for stealing the quietest voice
+    long serial = 0; //Order the bus took the voice in, for stealing the oldest
+
+    /**
+     * @param sample     the decoded sample, in a format the bus accepts
+     * @param startFrame the bus frame at which playback starts
+     */
+    Voice(Sample sample, long startFrame) {
+        this(sample, startFrame, sample.gain);
+    }
+
+    /**
+     * @param sample     the decoded sample, in a format the bus accepts
+     * @param startFrame the bus frame at which playback starts
+     * @param gain       the playback gain, for callers that resolved it
+     *                   themselves instead of using the cached sample's
+     */
+    Voice(Sample sample, long startFrame, float gain) {
+        this.sample = sample;
+        this.stream = null;
+        this.group = sample.stem;
+        this.gain = gain;
+        this.startFrame = startFrame;
+    }
+
+    /**
+     * @param stream     the stream to play, in the bus format
+     * @param startFrame the bus frame at which playback starts
+     */
+    Voice(SampleStream stream, long startFrame) {
+        this.sample = null;
+        this.stream = stream;
+        this.group = stream.stem;
+        this.gain = stream.gain;
+        this.startFrame = startFrame;
+    }
+}
@@ -0,0 +1,213 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polyphony limits for a mixer: at most {@link #maxVoices()} sounds at once
+ * and at most {@link #maxVoicesPerInstrument()} for any one instrument. When
+ * a new sound would go over a limit, an older one is stolen: it fades out
+ * over {@link #FADE_FRAMES} frames (about 6 ms), so it stops without a click,
+ * and the new sound takes its place. Which one is stolen is set by
+ * {@link Steal}.
+ *
+ * The manager for live playback is {@link #live()}. Its limits can be set with
+ * -Dsound.voices.max (default 128), -Dsound.voices.perInstrument (default 48)
+ * and -Dsound.voices.steal=oldest|quietest (default quietest), or changed at
+ * runtime with {@link #setLimits(int, int)}.
+ *
+ * The counters show what the limits are doing: voices sounding now, voices
+ * stolen to make room and voices dropped without being played because even
+ * stealing could not make room for them.
+ */
+public final class VoiceManager {
+    static final int FADE_FRAMES = 256;
+    static final int DEFAULT_MAX_VOICES = 128;
+    static final int DEFAULT_MAX_PER_INSTRUMENT = 48;
+
+    /**
+     * Which voice makes way for a new one
+     */
+    public enum Steal {
+        /**
+         * The voice that has been playing longest
+         */
+        OLDEST,
+        /**
+         * The voice whose last block was quietest, usually a tail that has
+         * almost died away; ties go to the oldest
+         */
+        QUIETEST
+    }
+
+    private static final VoiceManager LIVE = new VoiceManager(
+            Integer.getInteger("sound.voices.max", DEFAULT_MAX_VOICES),
+            Integer.getInteger("sound.voices.perInstrument", DEFAULT_MAX_PER_INSTRUMENT),
+            "oldest".equalsIgnoreCase(System.getProperty("sound.voices.steal")) ? Steal.OLDEST : Steal.QUIETEST);
+
+    final int slots; //Size of the bus using these limits, and so the highest voice limit
+    private volatile int maxVoices;
+    private volatile int maxPerInstrument;
+    final Steal steal;
+    private volatile int active = 0;
+    private final AtomicLong stolen = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param maxVoices        the most voices sounding at once, at most
+     *                         {@link MixBus#MAX_VOICES}
+     * @param maxPerInstrument the most voices of one instrument sounding at
+     *                         once
+     * @param steal            which voice makes way when a limit is reached
+     */
+    VoiceManager(int maxVoices, int maxPerInstrument, Steal steal) {
+        this(maxVoices, maxPerInstrument, steal, MixBus.MAX_VOICES);
+    }
+
+    /**
+     * @param maxVoices        the most voices sounding at once, at most
+     *                         {@code slots}
+     * @param maxPerInstrument the most voices of one instrument sounding at
+     *                         once
+     * @param steal            which voice makes way when a limit is reached
+     * @param slots            how many voices a bus using these limits holds,
+     *                         including stolen ones fading out
+     */
+    VoiceManager(int maxVoices, int maxPerInstrument, Steal steal, int slots) {
+        AssignmentLogger.logConstructor(this);
+        this.steal = steal;
+        this.slots = Math.max(1, slots);
+        setLimits(maxVoices, maxPerInstrument);
+    }
+
+    /**
+     * @return the limits and counters of the live mixer
+     */
+    public static VoiceManager live() {
+        AssignmentLogger.logStaticMethodEntry();
+        AssignmentLogger.logStaticMethodExit();
+        return LIVE;
+    }
+
+    /**
+     * A manager whose only limit is the bus size of a live mixer
+     *
+     * @return a new manager
+     */
+    static VoiceManager unlimited() {
+        AssignmentLogger.logStaticMethodEntry();
+        AssignmentLogger.logStaticMethodExit();
+        return unlimited(MixBus.MAX_VOICES);
+    }
+
+    /**
+     * A manager whose only limit is a bus of the given size, for offline
+     * rendering, where the bus can be as large as the render needs
+     *
+     * @param voices the most voices sounding at once
+     * @return a new manager
+     */
+    static VoiceManager unlimited(int voices) {
+        AssignmentLogger.logStaticMethodEntry();
+        AssignmentLogger.logStaticMethodExit();
+        return new VoiceManager(voices, voices, Steal.OLDEST, voices);
+    }
+
+    /**
+     * Changes the limits. Voices already over a new limit finish normally;
+     * the limit applies to the next voice started.
+     *
+     * @param maxVoices        the most voices sounding at once, from 1 to
+     *                         the bus size ({@link MixBus#MAX_VOICES} for
+     *                         the live mixer)
+     * @param maxPerInstrument the most voices of one instrument, from 1
+     */
+    public void setLimits(int maxVoices, int maxPerInstrument) {
+        AssignmentLogger.logMethodEntry(this);
+        this.maxVoices = Math.max(1, Math.min(slots, maxVoices));
+        this.maxPerInstrument = Math.max(1, maxPerInstrument);
+        AssignmentLogger.logMethodExit(this);
+    }
+
+    /**
+     * @return the most voices sounding at once
+     */
+    public int maxVoices() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return maxVoices;
+    }
+
+    /**
+     * @return the most voices of one instrument sounding at once
+     */
+    public int maxVoicesPerInstrument() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return maxPerInstrument;
+    }
+
+    /**
+     * @return voices sounding or fading out after the last block mixed
+     */
+    public int activeVoices() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return active;
+    }
+
+    /**
+     * @return voices cut short to make room for newer ones, since start
+     */
+    public long stolenVoices() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return stolen.get();
+    }
+
+    /**
+     * @return voices never played because there was no room, since start
+     */
+    public long droppedVoices() {
+        AssignmentLogger.logMethodEntry(this);
+        AssignmentLogger.logMethodExit(this);
+        return dropped.get();
+    }
+
+    /**
+     * {@link #maxVoices()} for the bus. Not logged: read on the render thread
+     * for every new voice, as are the methods below.
+     */
+    int limit() {
+        return maxVoices;
+    }
+
+    /**
+     * {@link #maxVoicesPerInstrument()} for the bus
+     */
+    int limitPerInstrument() {
+        return maxPerInstrument;
+    }
+
+    /**
+     * Records how many voices the bus holds after a block
+     */
+    void countActive(int voices) {
+        active = voices;
+    }
+
+    /**
+     * Records a voice stolen to make room
+     */
+    void countStolen() {
+        stolen.incrementAndGet();
+    }
+
+    /**
+     * Records a voice that was never played
+     */
+    void countDropped() {
+        dropped.incrementAndGet();
+    }
+}
@@ -0,0 +1,167 @@
+package instruments;
+
+import logging.AssignmentLogger;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads uncompressed RIFF/WAVE files by memory-mapping them. The header is
+ * parsed in place and the audio is exposed as a read-only slice of the
+ * mapping, so nothing is copied onto the Java heap: pages are loaded by the
+ * OS when they are first played.
+ *
+ * Integer PCM (8 to 32 bits, including WAVE_FORMAT_EXTENSIBLE) and 32-bit
+ * float are supported; anything else is rejected so the caller can fall back
+ * to Java Sound's decoders.
+ *
+ * Also writes the header for rendered PCM, see
+ * {@link #writeHeader(OutputStream, AudioFormat, long)}.
+ */
+final class WavFile {
+    private static final int RIFF = 0x46464952; //"RIFF" read little-endian
+    private static final int WAVE = 0x45564157; //"WAVE"
+    private static final int FMT = 0x20746d66; //"fmt "
+    private static final int DATA = 0x61746164; //"data"
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private WavFile() {
+    }
+
+    /**
+     * Maps a WAV file and returns its audio without copying it.
+     *
+     * @param file the WAV file
+     * @return a sample whose data is a read-only slice of the mapped file
+     * @throws IOException if the file cannot be read or is not an
+     *                     uncompressed WAV file
+     */
+    static Sample map(File file) throws IOException {
+        AssignmentLogger.logStaticMethodEntry();
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map in one piece");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return parse(file, mapped);
+        } finally {
+            AssignmentLogger.logStaticMethodExit(); //The mapping stays valid after the channel is closed
+        }
+    }
+
+    /**
+     * Walks the RIFF chunks of a whole WAV file held in a buffer.
+     *
+     * @param file the file the buffer came from, for messages
+     * @param wav  the complete file contents
+     * @return the sample, sharing the buffer's memory
+     * @throws IOException if the buffer is not an uncompressed WAV file
+     */
+    static Sample parse(File file, ByteBuffer wav) throws IOException {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            ByteBuffer in = wav.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            if (in.remaining() < 12 || in.getInt(0) != RIFF || in.getInt(8) != WAVE) {
+                throw new IOException(file + " is not a RIFF/WAVE file");
+            }
+            AudioFormat format = null;
+            int pos = 12;
+            while (pos + 8 <= in.limit()) {
+                int id = in.getInt(pos);
+                long size = Integer.toUnsignedLong(in.getInt(pos + 4));
+                int body = pos + 8;
+                if (id == FMT) {
+                    format = readFormat(file, in, body, size);
+                } else if (id == DATA) {
+                    if (format == null) {
+                        throw new IOException(file + " has its data chunk before the fmt chunk");
+                    }
+                    long available = Math.min(size, in.limit() - body); //Streamed files may leave the size unset
+                    int length = (int) (available - available % format.getFrameSize());
+                    ByteBuffer data = in.slice(body, length).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+                    return new Sample(file, format, data);
+                }
+                long next = body + size + (size & 1); //Chunks are padded to an even length
+                if (next > in.limit()) {
+                    break;
+                }
+                pos = (int) next;
+            }
+            throw new IOException(file + " has no " + (format == null ? "fmt" : "data") + " chunk");
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Writes a 44-byte canonical WAV header. The PCM data must follow
+     * directly and be exactly {@code dataBytes} long.
+     *
+     * @param out       where to write
+     * @param format    signed little-endian PCM format of the data
+     * @param dataBytes length of the data that follows
+     * @throws IOException if writing fails or the data is too long for WAV
+     */
+    static void writeHeader(OutputStream out, AudioFormat format, long dataBytes) throws IOException {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            if (dataBytes + 36 > 0xFFFFFFFFL) {
+                throw new IOException("WAV files cannot hold more than 4 GB of audio");
+            }
+            ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(RIFF).putInt((int) (36 + dataBytes)).putInt(WAVE);
+            header.putInt(FMT).putInt(16)
+                    .putShort((short) FORMAT_PCM)
+                    .putShort((short) format.getChannels())
+                    .putInt((int) format.getSampleRate())
+                    .putInt((int) format.getSampleRate() * format.getFrameSize())
+                    .putShort((short) format.getFrameSize())
+                    .putShort((short) format.getSampleSizeInBits());
+            header.putInt(DATA).putInt((int) dataBytes);
+            out.write(header.array());
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+
+    /**
+     * Checks a fmt chunk and converts it to an AudioFormat
+     */
+    private static AudioFormat readFormat(File file, ByteBuffer in, int body, long size) throws IOException {
+        AssignmentLogger.logStaticMethodEntry();
+        try {
+            if (size < 16 || body + 16 > in.limit()) {
+                throw new IOException(file + " has a truncated fmt chunk");
+            }
+            int tag = in.getShort(body) & 0xFFFF;
+            int channels = in.getShort(body + 2) & 0xFFFF;
+            long sampleRate = Integer.toUnsignedLong(in.getInt(body + 4));
+            int blockAlign = in.getShort(body + 12) & 0xFFFF;
+            int bits = in.getShort(body + 14) & 0xFFFF;
+            if (tag == FORMAT_EXTENSIBLE && size >= 40 && body + 26 <= in.limit()) {
+                tag = in.getShort(body + 24) & 0xFFFF; //First two bytes of the sub-format GUID
+            }
+            if (channels == 0 || sampleRate == 0 || bits == 0 || bits % 8 != 0 || blockAlign != channels * bits / 8) {
+                throw new IOException(file + " has an invalid fmt chunk");
+            }
+            if (tag == FORMAT_PCM) {
+                AudioFormat.Encoding encoding = bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+                return new AudioFormat(encoding, sampleRate, bits, channels, blockAlign, sampleRate, false);
+            }
+            if (tag == FORMAT_FLOAT && bits == 32) {
+                return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, sampleRate, bits, channels, blockAlign, sampleRate, false);
+            }
+            throw new IOException(file + " uses unsupported WAV format " + tag);
+        } finally {
+            AssignmentLogger.logStaticMethodExit();
+        }
+    }
+}
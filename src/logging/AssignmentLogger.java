@@ -1,19 +1,27 @@
 package logging; //Requires to be in the package logging
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.StackWalker.StackFrame;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Parameter;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
+import java.util.stream.Stream;
 
 /**
  * 
@@ -29,6 +37,21 @@ import java.util.logging.SimpleFormatter;
  *         For main call logMain()
  * 
  *         For constructors use logConstructor(Object classId)
+ *         
+ *         Call setAsync(true) (or run with -Dlogging.async=true) to queue
+ *         events for a background writer instead of writing them inline.
+ *         Call setBinary(true) (or run with -Dlogging.format=binary) for the
+ *         compact binary event log, or setRotating(...) for size and time
+ *         rotated log files
+ *         
+ *         Entry/exit/constructor logging can be switched off or sampled per
+ *         package, class or method with a rules file, see reloadFilter()
+ *         
+ *         Matching entry/exit pairs are timed per method, see
+ *         dumpLatencyReport()
+ *         
+ *         For anything else use logMessage(() -> "text"), which only
+ *         builds the text when logging is enabled, see setEnabled()
  * @version 3 Feb 2024
  * @
  * 
@@ -42,83 +65,587 @@ public class AssignmentLogger {
 	static DateTimeFormatter dtf = DateTimeFormatter.ofPattern(hourly);
 	static LocalDateTime now = LocalDateTime.now();
 	static Logger log = Logger.getLogger("External file log");
-	static Handler fileOut = createExternalLogFile();
-	static int detailsGenerated = 0;
+	static Handler fileOut = createExternalLogFile(false);
+	static final AtomicInteger detailsGenerated = new AtomicInteger(); //Atomic so sinks can ask for details without the class lock
+	private static final Object modeLock = new Object();
+	private static volatile AsyncLogWriter asyncWriter = null; //Non-null while async mode is on
+	private static LogSink asyncSink = null; //Where the async writer drains to
+	private static volatile LogSink outputSink = null; //Binary or rotating output, null when the file handler is used
+	private static final ClassValue<String> summaryReports = new ClassValue<String>() { //Reflection reports, built once per class
+		@Override
+		protected String computeValue(Class<?> type) {
+			return buildSummaryData(type);
+		}
+	};
+	private static final ClassValue<String> advancedReports = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> type) {
+			return buildAdvancedLogDetails(type);
+		}
+	};
+	private static final StackWalker walker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+	private static final Function<Stream<StackFrame>, StackFrame> findCaller = frames -> frames
+			.filter(frame -> frame.getDeclaringClass() != AssignmentLogger.class)
+			.findFirst()
+			.orElse(null);
+	private static volatile LogFilter filter = null; //Null when every call is logged
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(AssignmentLogger::flushOnShutdown, "AssignmentLogger-flush"));
+		reloadFilter();
+		if (System.getProperty("logging.level") != null) { //Run with -Dlogging.level=OFF to turn every log call into a no-op
+			log.setLevel(Level.parse(System.getProperty("logging.level")));
+		}
+		if ("binary".equals(System.getProperty("logging.format"))) { //Run with -Dlogging.format=binary for the binary event log
+			setBinary(true);
+		} else if (Long.getLong("logging.rotate.maxBytes", 0L) > 0) { //Run with -Dlogging.rotate.maxBytes=N for rotating log files
+			setRotating(Long.getLong("logging.rotate.maxBytes"), System.getProperty("logging.rotate.pattern", hourly),
+					Boolean.getBoolean("logging.rotate.gzip"));
+		}
+		if (Boolean.getBoolean("logging.async")) { //Run with -Dlogging.async=true to start in async mode
+			setAsync(true);
+		}
+	}
 
 
 	/**
 	 * Initialise the logger with the class to be logged
 	 */
-	public static synchronized void logInitialise(Object classId) {
-		log.log(Level.INFO, "\n" + getDetails(classId) + "Initialise Logger from main\n");
+	public static void logInitialise(Object classId) {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		dispatch(new LogEvent(LogEvent.Kind.INITIALISE, classId, null, null));
 	}	
 	
 	/**
 	 * Makes a log entry at the start of the method
 	 */
-	public static synchronized void logMethodEntry(Object classId) {
-		String where = getCallerSummary();
-		log.log(Level.INFO, "\n" + getDetails(classId) + "Method entry: " + where + "\n");
+	public static void logMethodEntry(Object classId) {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		CallSite where = admitCall(classId, LogEvent.Kind.METHOD_ENTRY);
+		if (where != null) {
+			dispatch(new LogEvent(LogEvent.Kind.METHOD_ENTRY, classId, where, null));
+			if (where.latency != null) {
+				CallTimings.entered(where.latency);
+			}
+		}
 	}
 
 	/**
 	 * Makes a log entry at the end of the method
 	 */
-	public static synchronized void logMethodExit(Object classId) {
-		String where = getCallerSummary();
-		log.log(Level.INFO, "\n" + getDetails(classId) + "Method exit: " + where + "\n");
+	public static void logMethodExit(Object classId) {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		long now = System.nanoTime();
+		CallSite where = admitCall(classId, LogEvent.Kind.METHOD_EXIT);
+		if (where != null) {
+			if (where.latency != null) {
+				CallTimings.exited(where.latency, now);
+			}
+			dispatch(new LogEvent(LogEvent.Kind.METHOD_EXIT, classId, where, null));
+		}
 	}
 
 	/**
 	 * Make a log for a static method entry No parameter as there is no object
 	 * created
 	 */
-	public synchronized static void logStaticMethodEntry() {
-		String where = getCallerSummary();
-		log.log(Level.INFO, "\n" + "\nStatic method entry: static calls generate minimal logs, call logConstructor(this) in constructor to log full class details - must be after any 'super' calls" + "\n at: " + where + "\n");
+	public static void logStaticMethodEntry() {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		CallSite where = admitCall(null, LogEvent.Kind.STATIC_ENTRY);
+		if (where != null) {
+			dispatch(new LogEvent(LogEvent.Kind.STATIC_ENTRY, null, where, null));
+			if (where.latency != null) {
+				CallTimings.entered(where.latency);
+			}
+		}
 	}
 
 	/**
 	 * Make a log for a static method exit No parameter as there is no object
 	 * created
 	 */
-	public synchronized static void logStaticMethodExit() {
-		String where = getCallerSummary();
-		log.log(Level.INFO, "\n" + "\nStatic method exit: static calls generate minimal logs, call logConstructor(this) in constructor to log full class details - must be after any 'super' calls" + "\n at: " + where + "\n");
+	public static void logStaticMethodExit() {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		long now = System.nanoTime();
+		CallSite where = admitCall(null, LogEvent.Kind.STATIC_EXIT);
+		if (where != null) {
+			if (where.latency != null) {
+				CallTimings.exited(where.latency, now);
+			}
+			dispatch(new LogEvent(LogEvent.Kind.STATIC_EXIT, null, where, null));
+		}
 	}
 
 	/**
 	 * Makes a log entry at the beginning of a constructor
 	 */
-	public static synchronized void logConstructor(Object classId) {
-		String where = getCallerSummary();
-		log.log(Level.INFO, "\n" + getDetails(classId) + " Constructor call at: " + where + "\n");
+	public static void logConstructor(Object classId) {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		CallSite where = admitCall(classId, LogEvent.Kind.CONSTRUCTOR);
+		if (where != null) {
+			dispatch(new LogEvent(LogEvent.Kind.CONSTRUCTOR, classId, where, null));
+		}
 	}
 
 	/**
 	 * Makes a log entry at the start of a main method
 	 */
-	public static synchronized void logMain() {
-		log.log(Level.INFO, "\n" + "\nMain method call: static calls generate minimal logs, call logConstructor(this) in constructor to log full class details - must be after any 'super' calls" + "\n");
+	public static void logMain() {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		dispatch(new LogEvent(LogEvent.Kind.MAIN, null, null, null));
 	}
 
 	/**
 	 * Makes a log entry at every catch error
 	 */
-	public static synchronized void logCatchException(Exception e) {
-		log.log(Level.INFO, "\nException " + e.toString() + " " + e.getMessage() + "\n");
+	public static void logCatchException(Exception e) {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		dispatch(new LogEvent(LogEvent.Kind.EXCEPTION, null, null, e));
+	}
+
+	/**
+	 * Makes a log entry at a catch block, with some context from the caller.
+	 * The supplier is only called if the entry is actually logged.
+	 */
+	public static void logCatchException(Exception e, Supplier<String> context) {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		dispatch(new LogEvent(LogEvent.Kind.EXCEPTION, null, null, e, context.get()));
+	}
+
+	/**
+	 * Logs a message from the caller. The supplier is only called if the
+	 * message is actually logged, so building it costs nothing when logging
+	 * is off:
+	 * <pre>
+	 *   AssignmentLogger.logMessage(() -> "loaded " + files.size() + " files");
+	 * </pre>
+	 */
+	public static void logMessage(Supplier<String> message) {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		dispatch(new LogEvent(LogEvent.Kind.MESSAGE, null, getCallerSite(), null, message.get()));
+	}
+
+	/**
+	 * Logs a String.format message from the caller. The text is only
+	 * formatted if the message is actually logged.
+	 */
+	public static void logMessage(String format, Object arg) {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		dispatch(new LogEvent(LogEvent.Kind.MESSAGE, null, getCallerSite(), null, String.format(format, arg)));
+	}
+
+	/**
+	 * Logs a String.format message from the caller. The text is only
+	 * formatted if the message is actually logged.
+	 */
+	public static void logMessage(String format, Object arg1, Object arg2) {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		dispatch(new LogEvent(LogEvent.Kind.MESSAGE, null, getCallerSite(), null, String.format(format, arg1, arg2)));
+	}
+
+	/**
+	 * Logs a String.format message from the caller. The text is only
+	 * formatted if the message is actually logged. Note that the varargs array
+	 * is built by the caller either way; the one and two argument versions
+	 * avoid it.
+	 */
+	public static void logMessage(String format, Object... args) {
+		if (!isEnabled() || asyncQueueFull()) {
+			return;
+		}
+		dispatch(new LogEvent(LogEvent.Kind.MESSAGE, null, getCallerSite(), null, String.format(format, args)));
+	}
+
+	/**
+	 * Whether log calls do anything at all. Controlled by the level of the
+	 * underlying logger (setEnabled(false) or -Dlogging.level=OFF), and checked before any stack walk or allocation, so a
+	 * disabled call costs next to nothing. Applies to every output mode.
+	 * 
+	 * @return true if INFO messages are being logged
+	 */
+	public static boolean isEnabled() {
+		return log.isLoggable(Level.INFO);
+	}
+
+	/**
+	 * Turns all logging on or off by setting the level of the underlying
+	 * logger
+	 * 
+	 * @param enabled false to make every log call return straight away
+	 */
+	public static void setEnabled(boolean enabled) {
+		log.setLevel(enabled ? Level.INFO : Level.OFF);
+	}
+
+	/**
+	 * Switches async mode on or off. In async mode callers only queue a small
+	 * event and a background writer appends batches to the log file, so no
+	 * caller waits on the logger lock or on disk I/O. Output goes to the log
+	 * file only (not the console). Queued events are flushed when switching
+	 * back and on JVM shutdown. The queue is bounded; see
+	 * {@link #getDroppedEvents()}.
+	 * 
+	 * @param enabled true to log asynchronously, false to log synchronously
+	 */
+	public static void setAsync(boolean enabled) {
+		synchronized (modeLock) {
+			if (enabled && asyncWriter == null) {
+				LogSink sink = outputSink;
+				if (sink == null) {
+					Formatter formatter = fileOut != null ? fileOut.getFormatter() : new SimpleFormatter();
+					detachExternalLogFile();
+					try {
+						sink = new TextLogSink(logFileBase() + ".txt", formatter);
+					} catch (IOException e) {
+						e.printStackTrace();
+						fileOut = createExternalLogFile(true);
+						return;
+					}
+				}
+				asyncSink = sink;
+				asyncWriter = AsyncLogWriter.start(sink, Integer.getInteger("logging.async.capacity", AsyncLogWriter.DEFAULT_CAPACITY));
+			} else if (!enabled && asyncWriter != null) {
+				AsyncLogWriter retired = asyncWriter;
+				asyncWriter = null;
+				retired.close();
+				if (asyncSink != outputSink) {
+					closeSink(asyncSink);
+					fileOut = createExternalLogFile(true);
+				}
+				asyncSink = null;
+			}
+		}
+	}
+
+	/**
+	 * In async mode the queue holds at most -Dlogging.async.capacity events
+	 * (default 65536). Events logged while it is full are dropped, without
+	 * walking the stack for them, and the log says how many were lost.
+	 * 
+	 * @return how many events the current async writer has dropped, or 0 in
+	 *         sync mode
+	 */
+	public static long getDroppedEvents() {
+		AsyncLogWriter writer = asyncWriter;
+		return writer != null ? writer.dropped() : 0;
+	}
+
+	/**
+	 * Whether the async queue is full, counting the call as dropped if it is.
+	 * Checked before any other work for a call.
+	 */
+	private static boolean asyncQueueFull() {
+		AsyncLogWriter writer = asyncWriter;
+		return writer != null && writer.dropIfFull();
+	}
+
+	/**
+	 * @return true while the logger is in async mode
+	 */
+	public static boolean isAsync() {
+		return asyncWriter != null;
+	}
+
+	/**
+	 * Switches the binary event log on or off. In binary mode each event is
+	 * written as a fixed-size record to a .bin file with the text it refers to
+	 * kept once in a .strings file alongside it, instead of to the text log.
+	 * Use BinaryLogDecoder to turn the .bin file back into the text format.
+	 * Works in both sync and async mode.
+	 * 
+	 * @param enabled true to write the binary log, false for the text log
+	 */
+	public static void setBinary(boolean enabled) {
+		synchronized (modeLock) {
+			if (enabled == isBinary()) {
+				return;
+			}
+			if (enabled) {
+				try {
+					replaceOutputSink(new BinaryLogSink(logFileBase()));
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			} else {
+				replaceOutputSink(null);
+			}
+		}
+	}
+
+	/**
+	 * @return true while the logger is writing the binary event log
+	 */
+	public static boolean isBinary() {
+		return outputSink instanceof BinaryLogSink;
+	}
+
+	/**
+	 * Switches the text log over to rotating, memory-mapped files. Events are
+	 * copied into a mapped segment rather than written with a syscall, and a
+	 * new file is started when the segment reaches maxBytes or when the time
+	 * in timePattern changes (user_14_logDetails.txt after
+	 * user_13_logDetails.txt with the hourly pattern). A full segment within
+	 * the same period gets a .1, .2 ... suffix.
+	 * 
+	 * @param maxBytes    size limit for each file, or 0 to go back to the single log file
+	 * @param timePattern date pattern for the file names and rotation period:
+	 *                    hourly, minuteByminute or constant
+	 * @param compressOld true to gzip finished files in the background
+	 */
+	public static void setRotating(long maxBytes, String timePattern, boolean compressOld) {
+		synchronized (modeLock) {
+			if (maxBytes > 0) {
+				Formatter formatter = fileOut != null ? fileOut.getFormatter() : new SimpleFormatter();
+				replaceOutputSink(new MappedLogSink(System.getProperty("user.name") + "_", timePattern, maxBytes, formatter, compressOld));
+			} else if (outputSink instanceof MappedLogSink) {
+				replaceOutputSink(null);
+			}
+		}
+	}
+
+	/**
+	 * Swaps the binary/rotating output, going back to the file handler when
+	 * sink is null. Async mode is restarted around the swap so the writer
+	 * drains into the right place. Must hold modeLock.
+	 */
+	private static void replaceOutputSink(LogSink sink) {
+		boolean wasAsync = asyncWriter != null;
+		setAsync(false);
+		LogSink retired = outputSink;
+		outputSink = sink;
+		if (retired != null) {
+			synchronized (AssignmentLogger.class) { //Let any sync write in progress finish first
+				closeSink(retired);
+			}
+		}
+		if (sink != null) {
+			detachExternalLogFile();
+		} else {
+			fileOut = createExternalLogFile(true);
+		}
+		setAsync(wasAsync);
+	}
+
+	/**
+	 * Prints p50/p99/max latency for every method that has logged matching
+	 * entry and exit calls. Each exit is paired with the latest entry of the
+	 * same method on the same thread.
+	 */
+	public static void dumpLatencyReport() {
+		System.out.println(getLatencyReport());
+	}
+
+	/**
+	 * @return the latency report printed by dumpLatencyReport()
+	 */
+	public static String getLatencyReport() {
+		StringBuilder report = new StringBuilder("----METHOD LATENCY (entry to exit)----\n");
+		report.append(String.format("%-60s %8s %10s %10s %10s%n", "method", "calls", "p50", "p99", "max"));
+		for (LatencyHistogram histogram : LatencyHistogram.all()) {
+			long calls = histogram.count();
+			if (calls > 0) {
+				report.append(String.format("%-60s %8d %10s %10s %10s%n", histogram.method, calls,
+						formatNanos(histogram.percentile(0.50)), formatNanos(histogram.percentile(0.99)),
+						formatNanos(histogram.max())));
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Formats a duration with a readable unit
+	 */
+	private static String formatNanos(long nanos) {
+		if (nanos < 10_000L) {
+			return nanos + "ns";
+		} else if (nanos < 10_000_000L) {
+			return String.format("%.1fus", nanos / 1_000.0);
+		} else if (nanos < 10_000_000_000L) {
+			return String.format("%.1fms", nanos / 1_000_000.0);
+		}
+		return String.format("%.1fs", nanos / 1_000_000_000.0);
+	}
+
+	/**
+	 * Reloads the entry/exit filter rules from the file named by the
+	 * logging.filter system property (logfilter.properties by default). With no
+	 * file, or only "on" rules, every call is logged. See LogFilter for the
+	 * file format.
+	 */
+	public static void reloadFilter() {
+		loadFilter(System.getProperty("logging.filter", "logfilter.properties"));
+	}
+
+	/**
+	 * Loads the entry/exit filter rules from the given properties file,
+	 * replacing the current rules. A missing file turns filtering off.
+	 * 
+	 * @param path the rules file
+	 */
+	public static void loadFilter(String path) {
+		if (!new File(path).isFile()) {
+			filter = null;
+			return;
+		}
+		try {
+			filter = LogFilter.load(path);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs the filter for an entry/exit/constructor call.
+	 * 
+	 * Class and package rules are decided from the class passed in without
+	 * walking the stack. Static calls and classes with method rules need the
+	 * caller's frame, but no line lookup or text.
+	 * 
+	 * @param classId the object passed to the logger, or null for static calls
+	 * @param kind    the kind of call
+	 * @return the caller's call site, or null if the call is filtered out
+	 */
+	private static CallSite admitCall(Object classId, LogEvent.Kind kind) {
+		LogFilter rules = filter;
+		if (rules == null) {
+			return getCallerSite();
+		}
+		if (classId != null) {
+			LogFilter.ClassRules classRules = rules.rulesFor(classId.getClass());
+			if (classRules.methodRules == null) {
+				return classRules.classRule.admit(kind, classId, null) ? getCallerSite() : null;
+			}
+			StackFrame frame = getCallerFrame();
+			if (frame == null) {
+				return CallSite.UNKNOWN;
+			}
+			return classRules.ruleFor(frame.getMethodName()).admit(kind, classId, frame.getMethodName()) ? CallSite.of(frame) : null;
+		}
+		StackFrame frame = getCallerFrame();
+		if (frame == null) {
+			return CallSite.UNKNOWN;
+		}
+		LogFilter.ClassRules classRules = rules.rulesFor(frame.getDeclaringClass());
+		return classRules.ruleFor(frame.getMethodName()).admit(kind, frame.getDeclaringClass(), frame.getMethodName()) ? CallSite.of(frame) : null;
+	}
+
+	/**
+	 * Hands the event to the async writer when async mode is on, otherwise
+	 * writes it straight away
+	 */
+	private static void dispatch(LogEvent event) {
+		AsyncLogWriter writer = asyncWriter;
+		if (writer != null) {
+			writer.enqueue(event);
+		} else {
+			publish(event);
+		}
+	}
+
+	/**
+	 * Writes the event to the binary or rotating log, or through the logger
+	 * and its file handler
+	 */
+	private static synchronized void publish(LogEvent event) {
+		LogSink output = outputSink;
+		if (output != null) {
+			try {
+				output.write(event);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		} else {
+			log.log(toRecord(event));
+		}
+	}
+
+	/**
+	 * Builds the log record for an event. The message text is identical in
+	 * sync and async mode. It takes no lock, because sinks call it while
+	 * holding their own monitor and publish calls sinks under the class one.
+	 * 
+	 * @param event the event to format
+	 * @return the record, stamped with the time the event happened
+	 */
+	static LogRecord toRecord(LogEvent event) {
+		String details = event.kind.detailed ? getDetails(event.classId) : "";
+		LogRecord record = new LogRecord(Level.INFO, event.kind.message(details, event.text()));
+		record.setInstant(Instant.ofEpochMilli(event.millis));
+		record.setLongThreadID(event.threadId);
+		record.setLoggerName(log.getName());
+		record.setSourceClassName(AssignmentLogger.class.getName());
+		record.setSourceMethodName(event.kind.sourceMethod);
+		return record;
+	}
+
+	/**
+	 * Writes out anything still buffered or queued when the JVM exits
+	 */
+	private static void flushOnShutdown() {
+		AsyncLogWriter writer = asyncWriter;
+		if (writer != null) {
+			writer.close();
+		}
+		closeSink(asyncSink);
+		closeSink(outputSink);
+	}
+
+	/**
+	 * Closes a sink, reporting rather than throwing any error
+	 */
+	private static void closeSink(LogSink sink) {
+		if (sink != null) {
+			try {
+				sink.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return the name of the external log file for this run, without the
+	 *         extension
+	 */
+	static String logFileBase() {
+		return System.getProperty("user.name") + "_" + dtf.format(now) + "_logDetails";
 	}
 
 	/**
 	 * This method sets up the external file handler
 	 * 
+	 * @param append true to add to an existing log file rather than replace it
 	 * @return Handler the file handler for the external file log
 	 */
-	private static synchronized Handler createExternalLogFile() {
+	private static synchronized Handler createExternalLogFile(boolean append) {
 
 		try {
 			if (fileOut == null) {
-				fileOut = new FileHandler(System.getProperty("user.name") + "_" + dtf.format(now) + "_logDetails.txt");
+				fileOut = new FileHandler(logFileBase() + ".txt", append);
 				fileOut.setFormatter(new SimpleFormatter());
 			}
 
@@ -132,14 +659,26 @@ public class AssignmentLogger {
 	}
 
 	/**
-	 * Returns most details for use in the logger
+	 * Takes the file handler off the logger and closes it, for when another
+	 * writer takes over the log file
+	 */
+	private static synchronized void detachExternalLogFile() {
+		if (fileOut != null) {
+			log.removeHandler(fileOut);
+			fileOut.close();
+			fileOut = null;
+		}
+	}
+
+	/**
+	 * Returns most details for use in the logger. Only the first call gets
+	 * the block; it takes no lock, so a sink may call it while holding its own.
 	 * 
 	 * @param classId The class passed to the logger
 	 * @return String of all of the details produced by the logger
 	 */
-	private static String getDetails(Object classId) {
-		if (detailsGenerated<1) {
-			detailsGenerated++;
+	static String getDetails(Object classId) {
+		if (detailsGenerated.getAndIncrement()<1) {
 						
 			return "\n----Machine and version details----\n\n" + classId.getClass().getCanonicalName() + "\nRan from: " + System.getProperty("user.dir")
 					+ "\nRan by: " + System.getProperty("user.name") + "\nOS Details:" + System.getProperty("os.name")
@@ -147,29 +686,35 @@ public class AssignmentLogger {
 					+ System.getProperty("java.home") + "\n\n" + "----Assignment Summary Details---- \n\n" + getSummaryData(classId) + "\n" + getAdvancedLogDetails(classId) + "\n----LIST OF RECENT METHOD CALLS---\n\n";
 		}
 		else {
-			detailsGenerated++;
 			return "";
 		}
 
 	}
 
 	/**
-	 * Returns a concise description of the immediate caller (class.method:line).
+	 * Returns the immediate caller's call site, whose summary is a concise
+	 * description of it (class.method:line).
 	 * Added By Kai (I wanted to know what methods were being called, thank me later)
+	 * 
+	 * The stack is walked lazily and stops at the first frame outside the
+	 * logger, and the text for each call site is built once and cached.
+	 */
+	private static CallSite getCallerSite() {
+		StackFrame frame = getCallerFrame();
+		return frame != null ? CallSite.of(frame) : CallSite.UNKNOWN;
+	}
+
+	/**
+	 * Finds the frame of the immediate caller, stopping the walk there
+	 * 
+	 * @return the frame, or null if it cannot be found
 	 */
-	private static String getCallerSummary() {
+	private static StackFrame getCallerFrame() {
 		try {
-			StackTraceElement[] st = Thread.currentThread().getStackTrace();
-			for (StackTraceElement el : st) {
-				String cls = el.getClassName();
-				if (!cls.equals(AssignmentLogger.class.getName()) && !cls.equals(Thread.class.getName())) {
-					return cls + "." + el.getMethodName() + ":" + el.getLineNumber();
-				}
-			}
+			return walker.walk(findCaller);
 		} catch (Exception ignored) {
-			// fallthrough
+			return null;
 		}
-		return "unknown";
 	}
 	
 	/**
@@ -178,10 +723,7 @@ public class AssignmentLogger {
 	 * @return This is the String with the summary data returned
 	 */
 	public static String getSummaryData(Object classId) {
-		String constructorTotal = "Total Constructors = " + classId.getClass().getDeclaredConstructors().length + "\n";
-		String fieldsTotal = "Total Fields = " + classId.getClass().getDeclaredFields().length + "\n";
-		String methodsTotal = "Total Methods = " + classId.getClass().getDeclaredMethods().length;
-		return constructorTotal + fieldsTotal + methodsTotal;	
+		return summaryReports.get(classId.getClass());
 	}
 
 	/**
@@ -193,91 +735,89 @@ public class AssignmentLogger {
 	 */
 
 	public static String getAdvancedLogDetails(Object classId) {
-		String completeString = getMethodDetails(classId) + getFieldDetails(classId) + getConstructorDetails(classId);
-		return completeString;
+		return advancedReports.get(classId.getClass());
+	}
+
+	/**
+	 * Builds the summary report for a class, see getSummaryData
+	 */
+	private static String buildSummaryData(Class<?> type) {
+		StringBuilder report = new StringBuilder(96);
+		report.append("Total Constructors = ").append(type.getDeclaredConstructors().length).append('\n');
+		report.append("Total Fields = ").append(type.getDeclaredFields().length).append('\n');
+		report.append("Total Methods = ").append(type.getDeclaredMethods().length);
+		return report.toString();
+	}
+
+	/**
+	 * Builds the advanced report for a class, see getAdvancedLogDetails
+	 */
+	private static String buildAdvancedLogDetails(Class<?> type) {
+		StringBuilder report = new StringBuilder(1024);
+		appendMethodDetails(report, type);
+		appendFieldDetails(report, type);
+		appendConstructorDetails(report, type);
+		return report.toString();
 	}
 
 	/**
 	 * This method will send to the advanced log file all of the details of the code
 	 * created It includes the methods and parameters and return types etc.
 	 * 
-	 * @param classId The class that was passed
+	 * @param report The report being built
+	 * @param type The class being examined
 	 */
-	private static String getFieldDetails(Object classId) {
-		String completeString="";
-		Vector<String> fieldNames = new Vector<String>();
-		Vector<String> fieldTypes = new Vector<String>();
-		Vector<String> fieldAccess = new Vector<String>();
-
-		Field[] fields = classId.getClass().getDeclaredFields();
+	private static void appendFieldDetails(StringBuilder report, Class<?> type) {
+		Field[] fields = type.getDeclaredFields();
 
-		completeString += "\n\n ----FULL FIELDS DETAILS----\n\n" + "TOTAL COUNT=" + fields.length;
+		report.append("\n\n ----FULL FIELDS DETAILS----\n\n").append("TOTAL COUNT=").append(fields.length);
 
 		for (int i = 0; i < fields.length; i++) {
-			fieldNames.add(fields[i].getName());
-			fieldTypes.add(fields[i].getType().getCanonicalName());
-			fieldAccess.add(decodeModifier(fields[i].getModifiers()));
-
-			completeString += "\n***FIELD " + (i + 1) + "\n" + fieldAccess.elementAt(i) + " " + fieldTypes.elementAt(i)
-					+ " " + fieldNames.elementAt(i);
+			report.append("\n***FIELD ").append(i + 1).append('\n')
+					.append(decodeModifier(fields[i].getModifiers())).append(' ')
+					.append(fields[i].getType().getCanonicalName()).append(' ')
+					.append(fields[i].getName());
 		}
-		return completeString;
 	}
 
 	/**
 	 * This method will send to the advanced log file all of the details of the code
 	 * created It includes the fields, field types etc.
 	 * 
-	 * @param classId The class that was passed
+	 * @param report The report being built
+	 * @param type The class being examined
 	 */
-	private static String getMethodDetails(Object classId) {
-
-		String completeString="";
-		Vector<String> methodNames = new Vector<String>();
-		Vector<String> methodReturnTypes = new Vector<String>();
-		Vector<String> methodAccess = new Vector<String>();
-		Vector<String> methodParameters = new Vector<String>();
-
-		Method[] methods = classId.getClass().getDeclaredMethods();
+	private static void appendMethodDetails(StringBuilder report, Class<?> type) {
+		Method[] methods = type.getDeclaredMethods();
 		
-		completeString += "\n ----FULL METHOD DETAILS---- \n\n" + "TOTAL METHODS = " + methods.length +"\n";
+		report.append("\n ----FULL METHOD DETAILS---- \n\n").append("TOTAL METHODS = ").append(methods.length).append('\n');
 
 		for (int i = 0; i < methods.length; i++) {
-			methodNames.add(methods[i].getName());
-			methodReturnTypes.add(methods[i].getReturnType().getCanonicalName());
-			methodAccess.add(decodeModifier(methods[i].getModifiers()));
-			methodParameters.add(decodeParameters(methods[i].getParameters()));
-
-			completeString += "\n***METHOD " + (i + 1) + "\n" + methodAccess.elementAt(i) + " " + methodReturnTypes.elementAt(i)
-							+ " " + methodNames.elementAt(i) + " " + methodParameters.elementAt(i);
+			report.append("\n***METHOD ").append(i + 1).append('\n')
+					.append(decodeModifier(methods[i].getModifiers())).append(' ')
+					.append(methods[i].getReturnType().getCanonicalName()).append(' ')
+					.append(methods[i].getName()).append(' ');
+			appendParameters(report, methods[i].getParameters());
 		}
-		return completeString;
-
 	}
 
 	/**
 	 * This method will add to the logs any constructor details
 	 * 
-	 * @param classId The class to be examined
+	 * @param report The report being built
+	 * @param type The class to be examined
 	 */
-	private static String getConstructorDetails(Object classId) {
-		String completeString="";
-		Vector<String> constructorNames = new Vector<String>();
-		Vector<String> constructorParameters = new Vector<String>();
-
-		Constructor<?>[] constructors = classId.getClass().getConstructors();
+	private static void appendConstructorDetails(StringBuilder report, Class<?> type) {
+		Constructor<?>[] constructors = type.getConstructors();
 		
-		completeString+="\n\n----FULL CONSTRUCTOR(S) DETAILS----\n\n" + "TOTAL COUNT=" + constructors.length;
+		report.append("\n\n----FULL CONSTRUCTOR(S) DETAILS----\n\n").append("TOTAL COUNT=").append(constructors.length);
 
 		for (int i = 0; i < constructors.length; i++) {
-			constructorNames.add(constructors[i].getName());
-			constructorParameters.add(decodeParameters(constructors[i].getParameters()));
-
-			completeString += "\n***CONSTRUCTOR " + (i + 1) + "\n" + constructorNames.elementAt(i) + " "
-					+ constructorParameters.elementAt(i) + "\n";
-
+			report.append("\n***CONSTRUCTOR ").append(i + 1).append('\n')
+					.append(constructors[i].getName()).append(' ');
+			appendParameters(report, constructors[i].getParameters());
+			report.append('\n');
 		}
-		return completeString;
 	}
 
 	/**
@@ -301,39 +841,33 @@ public class AssignmentLogger {
 	}
 
 	/**
-	 * Decodes the modifier to readable code
+	 * Decodes the parameters to readable code
 	 * 
-	 * @param mod The modifier in integer form
-	 * @return The modifier in string form public, private, protected, package
-	 *         (default)
+	 * @param report The report the parameter details are added to
+	 * @param array The parameters of a method or constructor
 	 */
-	private static String decodeParameters(Parameter[] array) {
-
-		String parameterDetails = "";
+	private static void appendParameters(StringBuilder report, Parameter[] array) {
 
 		if (array.length < 1) {
-			return "No-parameters";
+			report.append("No-parameters");
 		} else {
 			for (int i = 0; i < array.length; i++) {
-				parameterDetails += "\n" + "Parameter " + (i+1) + " is type ";
-				if(array[i].getType().getName().charAt(0)=='[') {
+				report.append("\n").append("Parameter ").append(i + 1).append(" is type ");
+				String typeName = array[i].getType().getName();
+				if(typeName.charAt(0)=='[') {
 					if(!array[i].isVarArgs()) {
 						//This is an array
-						String subString = "";
-						subString="\\[" + "L";
-						parameterDetails += " Array of " + array[i].getType().getName().replaceFirst(subString, "");
+						report.append(" Array of ").append(typeName.replaceFirst("\\[L", ""));
 					}
 					else {
-						parameterDetails += "Vararg of type" + array[i].getType().getName();
+						report.append("Vararg of type").append(typeName);
 					}
 				}
 				else {
-					parameterDetails += array[i].getType().getName();
+					report.append(typeName);
 				}
 			}
 		}
-
-		return parameterDetails;
 	}
 
 }
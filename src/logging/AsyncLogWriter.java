@@ -0,0 +1,212 @@
+package logging;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer used when the logger runs in async mode. Callers drop a
+ * {@link LogEvent} into a lock-free ring buffer and return straight away; a
+ * single daemon thread drains the ring in batches into a {@link LogSink} and
+ * flushes once per batch.
+ * 
+ * The ring is a fixed array, so queueing an event allocates nothing. Each slot
+ * has a sequence number saying whether it is free for the producer on that lap
+ * or holds an event for the writer. Producers claim slots by advancing the
+ * tail with a CAS. When the ring is full, new events are dropped and counted
+ * rather than making callers wait, and the writer notes in the log how many
+ * were lost once it catches up.
+ * 
+ * Closing sets a bit in the tail, so a producer either claimed its slot before
+ * the close (and the final drain waits for it) or sees the bit and drops and
+ * counts the event. Nothing is lost silently.
+ */
+final class AsyncLogWriter implements Runnable {
+
+	static final int DEFAULT_CAPACITY = 65_536; //Events queued at most, rounded up to a power of two
+	private static final int MAX_BATCH = 1024; //Events written between flushes
+	private static final long IDLE_PARK_NANOS = 2_000_000L; //How long the writer sleeps when the ring is empty
+
+	private static final long CLOSED = Long.MIN_VALUE; //Tail bit set once the writer stops taking events
+
+	private final LogEvent[] ring;
+	private final AtomicLongArray sequences; //Slot i is free when it holds the tail, full when it holds tail + 1
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong(); //Next slot to claim, plus the CLOSED bit
+	private volatile long head = 0; //Next slot to drain; written only by whoever holds the drain lock
+	private final AtomicLong dropped = new AtomicLong();
+	private final LogSink sink;
+	private final Thread writerThread;
+	private volatile boolean running = true;
+	private boolean closed = false;
+	private long reported = 0; //Drops already noted in the log
+
+	private AsyncLogWriter(LogSink sink, int capacity) {
+		this.sink = sink;
+		int size = Integer.highestOneBit(Math.max(2, Math.min(capacity, 1 << 30) * 2 - 1)); //Next power of two
+		this.ring = new LogEvent[size];
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		this.mask = size - 1;
+		this.writerThread = new Thread(this, "AssignmentLogger-writer");
+		this.writerThread.setDaemon(true);
+	}
+
+	/**
+	 * Starts a writer thread that drains into the given sink.
+	 *
+	 * @param sink     where queued events are written
+	 * @param capacity the most events to hold before dropping new ones,
+	 *                 rounded up to a power of two
+	 * @return the running writer
+	 */
+	static AsyncLogWriter start(LogSink sink, int capacity) {
+		AsyncLogWriter writer = new AsyncLogWriter(sink, capacity);
+		writer.writerThread.start();
+		return writer;
+	}
+
+	/**
+	 * Queues an event for writing, or drops and counts it if the ring is full
+	 * or the writer has been closed. Never blocks.
+	 */
+	void enqueue(LogEvent event) {
+		long pos = tail.get();
+		while (true) {
+			if ((pos & CLOSED) != 0) {
+				dropped.incrementAndGet();
+				return;
+			}
+			long gap = sequences.get((int) pos & mask) - pos;
+			if (gap == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					break;
+				}
+				pos = tail.get();
+			} else if (gap < 0) { //Slot still holds last lap's event, so the ring is full
+				dropped.incrementAndGet();
+				return;
+			} else {
+				pos = tail.get(); //Another producer took this slot
+			}
+		}
+		int slot = (int) pos & mask;
+		ring[slot] = event;
+		sequences.set(slot, pos + 1); //Publishes the event to the writer
+	}
+
+	/**
+	 * Checks for room before the caller does any work for an event, such as
+	 * finding its call site. A full or closed ring counts the event as dropped.
+	 *
+	 * @return true if the ring is full or closed and the event should not be
+	 *         built
+	 */
+	boolean dropIfFull() {
+		long pos = tail.get();
+		if ((pos & CLOSED) == 0 && pos - head < ring.length) {
+			return false;
+		}
+		dropped.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return how many events have been dropped because the ring was full or
+	 *         closed
+	 */
+	long dropped() {
+		return dropped.get();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			if (drain() == 0) {
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Writes up to one batch of queued events and flushes once.
+	 *
+	 * @return the number of events written
+	 */
+	private synchronized int drain() {
+		if (closed) {
+			return 0;
+		}
+		int written = 0;
+		try {
+			LogEvent event;
+			while (written < MAX_BATCH && (event = poll()) != null) {
+				sink.write(event);
+				written++;
+			}
+			long lost = dropped.get();
+			if (lost > reported && (tail.get() & ~CLOSED) == head) { //Caught up, so say where the gap is
+				sink.write(new LogEvent(LogEvent.Kind.MESSAGE, null, CallSite.UNKNOWN, null,
+						"async log queue was full, dropped " + (lost - reported) + " event(s)"));
+				reported = lost;
+				written++;
+			}
+			if (written > 0) {
+				sink.flush();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return written;
+	}
+
+	/**
+	 * Takes the next event off the ring. Only called while holding the drain
+	 * lock, so there is one consumer.
+	 *
+	 * @return the event, or null if the next slot has not been published yet
+	 */
+	private LogEvent poll() {
+		long pos = head;
+		int slot = (int) pos & mask;
+		if (sequences.get(slot) != pos + 1) {
+			return null;
+		}
+		LogEvent event = ring[slot];
+		ring[slot] = null;
+		sequences.set(slot, pos + ring.length); //Free for the producer one lap on
+		head = pos + 1;
+		return event;
+	}
+
+	/**
+	 * Stops taking events, stops the writer thread and writes everything
+	 * queued before the close, including events whose producers had claimed a
+	 * slot but not yet filled it. Events offered afterwards are dropped and
+	 * counted. The sink is flushed but left open for its owner to close. Safe
+	 * to call more than once.
+	 */
+	void close() {
+		long end = tail.getAndUpdate(pos -> pos | CLOSED) & ~CLOSED;
+		running = false;
+		LockSupport.unpark(writerThread);
+		if (Thread.currentThread() != writerThread) {
+			try {
+				writerThread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		while (head < end) {
+			if (drain() == 0) {
+				Thread.onSpinWait(); //A producer has claimed a slot and is about to fill it
+			}
+		}
+		synchronized (this) {
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Command-line tool that turns a binary event log (see
+ * {@link AssignmentLogger#setBinary(boolean)}) back into the usual text log.
+ *
+ * Usage: {@code java -cp out logging.BinaryLogDecoder user_13_logDetails.bin [output.txt]}
+ *
+ * The string table is read from the .strings file next to the .bin file.
+ * Output goes to stdout when no output file is given. A log cut short by a
+ * crash decodes up to its last whole record; decoding also stops, with a note
+ * on stderr, at a record that cannot be an event.
+ *
+ * This tool deliberately does not call AssignmentLogger: loading the logger
+ * opens (and replaces) the current hour's log file, which may be the very file
+ * being decoded into.
+ */
+public class BinaryLogDecoder {
+
+	/**
+	 * Decodes the log named in args[0] to args[1], or to stdout.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: java logging.BinaryLogDecoder <log.bin> [output.txt]");
+			System.exit(2);
+		}
+		try {
+			Writer out = args.length > 1
+					? new OutputStreamWriter(new FileOutputStream(args[1]))
+					: new OutputStreamWriter(System.out);
+			try (Writer writer = new BufferedWriter(out, 64 * 1024)) {
+				int events = decode(args[0], writer);
+				System.err.println("Decoded " + events + " events");
+			}
+		} catch (IOException e) {
+			System.err.println("Could not decode " + args[0] + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Decodes a binary event log into the text log format.
+	 *
+	 * @param binPath path to the .bin file; the .strings file must sit next to it
+	 * @param out     where the text log is written
+	 * @return the number of events decoded, up to any truncated or damaged
+	 *         record
+	 * @throws IOException if either file is missing or not a binary event log
+	 */
+	public static int decode(String binPath, Writer out) throws IOException {
+		String base = binPath.endsWith(".bin") ? binPath.substring(0, binPath.length() - 4) : binPath;
+		Map<Integer, String> strings = readStrings(base + ".strings");
+		Formatter formatter = new SimpleFormatter();
+		LogEvent.Kind[] kinds = LogEvent.Kind.values();
+		int count = 0;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(binPath), 64 * 1024))) {
+			checkHeader(in, BinaryLogSink.EVENT_MAGIC, binPath);
+			byte[] bytes = new byte[BinaryLogSink.RECORD_SIZE];
+			ByteBuffer fields = ByteBuffer.wrap(bytes); //Big-endian, as DataOutputStream wrote it
+			while (true) {
+				int read = in.readNBytes(bytes, 0, bytes.length);
+				if (read == 0) {
+					break;
+				}
+				if (read < bytes.length) {
+					System.err.println(binPath + ": ignoring truncated last record (" + read + " of " + bytes.length + " bytes)");
+					break;
+				}
+				fields.clear();
+				long millis = fields.getLong();
+				int threadId = fields.getInt();
+				int kindIndex = fields.getInt();
+				if (kindIndex < 0 || kindIndex >= kinds.length) {
+					System.err.println(binPath + ": record " + count + " has unknown kind " + kindIndex + ", stopping there");
+					break;
+				}
+				LogEvent.Kind kind = kinds[kindIndex];
+				String text = strings.get(fields.getInt());
+				String details = strings.getOrDefault(fields.getInt(), "");
+
+				LogRecord record = new LogRecord(Level.INFO, kind.message(details, text));
+				record.setInstant(Instant.ofEpochMilli(millis));
+				record.setLongThreadID(threadId);
+				record.setSourceClassName(AssignmentLogger.class.getName());
+				record.setSourceMethodName(kind.sourceMethod);
+				out.write(formatter.format(record));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Loads the whole string table into memory
+	 */
+	private static Map<Integer, String> readStrings(String path) throws IOException {
+		Map<Integer, String> strings = new HashMap<Integer, String>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			checkHeader(in, BinaryLogSink.STRINGS_MAGIC, path);
+			while (true) {
+				int id;
+				byte[] bytes;
+				try {
+					id = in.readInt();
+					int length = in.readInt();
+					if (length < 0) {
+						System.err.println(path + ": string " + id + " has length " + length + ", stopping there");
+						break;
+					}
+					bytes = in.readNBytes(length);
+					if (bytes.length < length) {
+						throw new EOFException();
+					}
+				} catch (EOFException endOfTable) {
+					break; //End of the table, or an entry cut short by a crash
+				}
+				strings.put(id, new String(bytes, StandardCharsets.UTF_8));
+			}
+		}
+		return strings;
+	}
+
+	private static void checkHeader(DataInputStream in, int magic, String path) throws IOException {
+		if (in.readInt() != magic) {
+			throw new IOException(path + " is not a binary event log file");
+		}
+		int version = in.readInt();
+		if (version != BinaryLogSink.VERSION) {
+			throw new IOException(path + " has unsupported version " + version);
+		}
+	}
+}
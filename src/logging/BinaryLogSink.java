@@ -0,0 +1,143 @@
+package logging;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+/**
+ * Writes events as fixed-size binary records. Any text an event refers to (the
+ * call site, the one-off class details block, exception or message text) is written once
+ * to a string table file alongside and referenced by id.
+ *
+ * Event file (.bin): the {@link #EVENT_MAGIC} header, then one
+ * {@link #RECORD_SIZE}-byte record per event:
+ * <pre>
+ *   long millis | int threadId | int kind | int textId | int detailsId
+ * </pre>
+ * String table (.strings): the {@link #STRINGS_MAGIC} header, then entries of
+ * {@code int id | int length | length bytes of UTF-8}. Positive ids are call
+ * sites, negative ids are one-off strings and 0 means "no text".
+ *
+ * Call site ids are only meaningful within one run, so a run never appends
+ * to an earlier log: if baseName.bin is taken, the next free
+ * baseName.N.bin/.strings pair is used, as the rotating text log numbers its
+ * segments.
+ */
+final class BinaryLogSink implements LogSink {
+
+	static final int EVENT_MAGIC = 0x414C4F47; //"ALOG"
+	static final int STRINGS_MAGIC = 0x4153545A; //"ASTZ"
+	static final int VERSION = 1;
+	static final int RECORD_SIZE = 24;
+
+	private final DataOutputStream events;
+	private final DataOutputStream strings;
+	private final BitSet writtenSites = new BitSet();
+	private int nextOneOffId = -1;
+	private boolean closed = false;
+
+	/**
+	 * Creates baseName.bin and baseName.strings, or baseName.1.bin and so on
+	 * if an earlier log already has that name.
+	 *
+	 * @param baseName the log file name without an extension
+	 * @throws IOException if either file cannot be created
+	 */
+	BinaryLogSink(String baseName) throws IOException {
+		String name = freeName(baseName);
+		this.events = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(name + ".bin"), 64 * 1024));
+		this.strings = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(name + ".strings"), 16 * 1024));
+		events.writeInt(EVENT_MAGIC);
+		events.writeInt(VERSION);
+		strings.writeInt(STRINGS_MAGIC);
+		strings.writeInt(VERSION);
+	}
+
+	/**
+	 * @return the first of baseName, baseName.1, baseName.2 ... with neither
+	 *         a .bin nor a .strings file
+	 */
+	static String freeName(String baseName) {
+		String name = baseName;
+		for (int sequence = 1; new File(name + ".bin").exists() || new File(name + ".strings").exists(); sequence++) {
+			name = baseName + "." + sequence;
+		}
+		return name;
+	}
+
+	@Override
+	public synchronized void write(LogEvent event) throws IOException {
+		if (closed) {
+			return;
+		}
+		int textId;
+		if (event.exception != null || event.message != null) {
+			textId = writeOneOff(event.text());
+		} else if (event.site != null) {
+			textId = siteId(event.site);
+		} else {
+			textId = 0;
+		}
+		int detailsId = 0;
+		if (event.kind.detailed) {
+			String details = AssignmentLogger.getDetails(event.classId);
+			if (!details.isEmpty()) {
+				detailsId = writeOneOff(details);
+			}
+		}
+		events.writeLong(event.millis);
+		events.writeInt((int) event.threadId);
+		events.writeInt(event.kind.ordinal());
+		events.writeInt(textId);
+		events.writeInt(detailsId);
+	}
+
+	/**
+	 * Returns the id of a call site, adding it to the string table the first
+	 * time it is seen
+	 */
+	private int siteId(CallSite site) throws IOException {
+		if (!writtenSites.get(site.id)) {
+			writeString(site.id, site.summary);
+			writtenSites.set(site.id);
+		}
+		return site.id;
+	}
+
+	/**
+	 * Adds a string that is only used once to the string table
+	 */
+	private int writeOneOff(String text) throws IOException {
+		int id = nextOneOffId--;
+		writeString(id, text);
+		return id;
+	}
+
+	private void writeString(int id, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		strings.writeInt(id);
+		strings.writeInt(bytes.length);
+		strings.write(bytes);
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		if (!closed) {
+			strings.flush();
+			events.flush();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			strings.close();
+			events.close();
+		}
+	}
+}
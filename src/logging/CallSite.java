@@ -0,0 +1,60 @@
+package logging;
+
+import java.lang.StackWalker.StackFrame;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A location in the code that called the logger. Each distinct call site
+ * (class, method and bytecode index) is resolved once and then reused, so the
+ * class.method:line text is only ever built the first time it is seen.
+ * Every call site also gets a small id, which the binary log writes in place
+ * of the text.
+ */
+final class CallSite {
+
+	/**
+	 * Identifies a call site without resolving its line number
+	 */
+	private record Key(Class<?> type, String method, int bci) {
+	}
+
+	private static final ConcurrentHashMap<Key, CallSite> sites = new ConcurrentHashMap<Key, CallSite>();
+	private static final AtomicInteger nextId = new AtomicInteger(1);
+
+	/**
+	 * Used when the caller cannot be found
+	 */
+	static final CallSite UNKNOWN = new CallSite("unknown", null);
+
+	final int id;
+	final String summary;
+	final LatencyHistogram latency; //Shared by every call site in the same method, null if unknown
+
+	private CallSite(String summary, LatencyHistogram latency) {
+		this.id = nextId.getAndIncrement();
+		this.summary = summary;
+		this.latency = latency;
+	}
+
+	private CallSite(StackFrame frame) {
+		this(frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber(),
+				LatencyHistogram.forMethod(frame.getClassName() + "." + frame.getMethodName()));
+	}
+
+	/**
+	 * Returns the shared call site for a stack frame, creating it on first use.
+	 * The frame must come from a walker that retains class references.
+	 *
+	 * @param frame the caller's frame
+	 * @return the cached call site
+	 */
+	static CallSite of(StackFrame frame) {
+		Key key = new Key(frame.getDeclaringClass(), frame.getMethodName(), frame.getByteCodeIndex());
+		CallSite site = sites.get(key);
+		if (site == null) {
+			site = sites.computeIfAbsent(key, k -> new CallSite(frame));
+		}
+		return site;
+	}
+}
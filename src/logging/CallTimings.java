@@ -0,0 +1,66 @@
+package logging;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread stack of methods that have logged an entry but not yet an exit.
+ * Each exit is matched with the most recent entry of the same method on the
+ * same thread, and the time between them goes into that method's
+ * {@link LatencyHistogram}. Entries whose exit was never logged (for example
+ * because an exception skipped it) are dropped when an outer method exits.
+ */
+final class CallTimings {
+
+	private static final int MAX_DEPTH = 1024; //Past this the thread is assumed to have lost its exits and starts over
+
+	private static final ThreadLocal<CallTimings> perThread = ThreadLocal.withInitial(CallTimings::new);
+
+	private LatencyHistogram[] methods = new LatencyHistogram[32];
+	private long[] starts = new long[32];
+	private int depth = 0;
+
+	/**
+	 * Notes that a method has been entered on this thread
+	 */
+	static void entered(LatencyHistogram method) {
+		perThread.get().push(method, System.nanoTime());
+	}
+
+	/**
+	 * Matches an exit with its entry and records the elapsed time
+	 *
+	 * @param method the exiting method's histogram
+	 * @param now    System.nanoTime() at the exit
+	 */
+	static void exited(LatencyHistogram method, long now) {
+		perThread.get().pop(method, now);
+	}
+
+	private void push(LatencyHistogram method, long start) {
+		if (depth == MAX_DEPTH) {
+			Arrays.fill(methods, null);
+			depth = 0;
+		}
+		if (depth == methods.length) {
+			methods = Arrays.copyOf(methods, depth * 2);
+			starts = Arrays.copyOf(starts, depth * 2);
+		}
+		methods[depth] = method;
+		starts[depth] = start;
+		depth++;
+	}
+
+	private void pop(LatencyHistogram method, long now) {
+		for (int i = depth - 1; i >= 0; i--) {
+			if (methods[i] == method) {
+				method.record(now - starts[i]);
+				for (int j = i; j < depth; j++) {
+					methods[j] = null;
+				}
+				depth = i;
+				return;
+			}
+		}
+		// exit without a matching entry, nothing to measure
+	}
+}
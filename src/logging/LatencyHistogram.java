@@ -0,0 +1,118 @@
+package logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histogram for one method. Buckets are log-linear: each
+ * power of two is split into 8 equal buckets, so any recorded value is known
+ * to within 12.5%. Recording is a couple of atomic adds and never allocates.
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private static final Map<String, LatencyHistogram> byMethod = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	final String method;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong max = new AtomicLong();
+
+	private LatencyHistogram(String method) {
+		this.method = method;
+	}
+
+	/**
+	 * @param method class.method name
+	 * @return the shared histogram for that method
+	 */
+	static LatencyHistogram forMethod(String method) {
+		return byMethod.computeIfAbsent(method, LatencyHistogram::new);
+	}
+
+	/**
+	 * @return every method's histogram, sorted by method name
+	 */
+	static List<LatencyHistogram> all() {
+		List<LatencyHistogram> all = new ArrayList<LatencyHistogram>(byMethod.values());
+		all.sort((a, b) -> a.method.compareTo(b.method));
+		return all;
+	}
+
+	/**
+	 * Adds one measurement.
+	 *
+	 * @param nanos elapsed time in nanoseconds
+	 */
+	void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucketOf(value));
+		long seen = max.get();
+		while (value > seen && !max.compareAndSet(seen, value)) {
+			seen = max.get();
+		}
+	}
+
+	/**
+	 * @return the number of measurements recorded
+	 */
+	long count() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * @return the largest measurement recorded, in nanoseconds
+	 */
+	long max() {
+		return max.get();
+	}
+
+	/**
+	 * @param fraction e.g. 0.5 for the median or 0.99 for p99
+	 * @return the upper edge of the bucket holding that percentile, in
+	 *         nanoseconds, or 0 if nothing has been recorded
+	 */
+	long percentile(double fraction) {
+		long total = count();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(upperEdge(i), max());
+			}
+		}
+		return max();
+	}
+
+	private static int bucketOf(long value) {
+		int exponent = 63 - Long.numberOfLeadingZeros(value | 1);
+		if (exponent < SUB_BITS) {
+			return (int) value;
+		}
+		return ((exponent - SUB_BITS + 1) << SUB_BITS) + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	private static long upperEdge(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = (bucket >> SUB_BITS) + SUB_BITS - 1;
+		long width = 1L << (exponent - SUB_BITS);
+		long lower = (1L << exponent) + (bucket & (SUB_BUCKETS - 1)) * width;
+		return lower + width - 1;
+	}
+}
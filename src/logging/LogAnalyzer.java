@@ -0,0 +1,540 @@
+package logging;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Command-line tool that summarises text logs written by AssignmentLogger.
+ *
+ * Usage: {@code java -cp out logging.LogAnalyzer <log file or directory>...}
+ *
+ * For every class.method it prints how often it was entered and exited and an
+ * estimate of how long each call took, followed by the busiest call sites.
+ * Directories are searched for *_logDetails.txt files (including rotated
+ * .N.txt and .txt.gz segments).
+ *
+ * Files are streamed, never loaded whole. Each file, or each chunk of a large
+ * file, is parsed by its own fork-join task, and the per-chunk results are
+ * merged in file order afterwards, so memory use depends on the number of
+ * distinct methods and call sites rather than on the size of the logs.
+ *
+ * The text log only has timestamps to the second, so durations are estimates:
+ * an exit is paired with the latest unmatched entry of the same method, and
+ * short calls mostly show up as 0s.
+ *
+ * Like BinaryLogDecoder this tool does not call AssignmentLogger, so running
+ * it does not create a new log file next to the ones being read.
+ */
+public class LogAnalyzer {
+
+	static final long CHUNK_BYTES = 32L * 1024 * 1024; //Files larger than this are split between tasks
+
+	private static final String HEADER_MARK = " logging.AssignmentLogger log";
+	private static final String METHOD_ENTRY = "Method entry: ";
+	private static final String METHOD_EXIT = "Method exit: ";
+	private static final String STATIC_ENTRY = "Static method entry:";
+	private static final String STATIC_EXIT = "Static method exit:";
+	private static final String STATIC_SITE = " at: ";
+
+	private static final int MAX_OPEN = 1024; //Unmatched entries kept per method, like CallTimings
+	private static final int MAX_DANGLING = 4096; //Exits kept per chunk for matching with the previous chunk
+	private static final int TOP_SITES = 20;
+
+	/**
+	 * Call counts and estimated durations for one class.method
+	 */
+	static final class MethodStats {
+		long entries;
+		long exits;
+		long timed; //Exits that were paired with an entry
+		long totalMillis;
+		long maxMillis;
+
+		void record(long millis) {
+			timed++;
+			totalMillis += millis;
+			maxMillis = Math.max(maxMillis, millis);
+		}
+
+		void add(MethodStats other) {
+			entries += other.entries;
+			exits += other.exits;
+			timed += other.timed;
+			totalMillis += other.totalMillis;
+			maxMillis = Math.max(maxMillis, other.maxMillis);
+		}
+	}
+
+	/**
+	 * Entry timestamps still waiting for their exit, newest last
+	 */
+	private static final class OpenCalls {
+		long[] times = new long[8];
+		int size;
+
+		void push(long time) {
+			if (size == MAX_OPEN) {
+				System.arraycopy(times, 1, times, 0, size - 1); //Forget the oldest
+				size--;
+			}
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+			}
+			times[size++] = time;
+		}
+
+		long pop() {
+			return times[--size];
+		}
+	}
+
+	/**
+	 * What one task found in its file or chunk
+	 */
+	static final class Result {
+		final Map<String, MethodStats> methods = new HashMap<String, MethodStats>();
+		final Map<String, long[]> sites = new HashMap<String, long[]>();
+		final Map<String, OpenCalls> open = new HashMap<String, OpenCalls>();
+		final List<String> danglingMethods = new ArrayList<String>(); //Exits with no entry in this chunk, in order
+		final List<Long> danglingTimes = new ArrayList<Long>();
+		long records;
+
+		MethodStats stats(String method) {
+			return methods.computeIfAbsent(method, k -> new MethodStats());
+		}
+
+		void entry(String site, long time) {
+			String method = methodOf(site);
+			stats(method).entries++;
+			sites.computeIfAbsent(site, k -> new long[1])[0]++;
+			if (time >= 0) {
+				open.computeIfAbsent(method, k -> new OpenCalls()).push(time);
+			}
+		}
+
+		void exit(String site, long time) {
+			String method = methodOf(site);
+			MethodStats stats = stats(method);
+			stats.exits++;
+			if (time < 0) {
+				return;
+			}
+			OpenCalls calls = open.get(method);
+			if (calls != null && calls.size > 0) {
+				stats.record(time - calls.pop());
+			} else if (danglingMethods.size() < MAX_DANGLING) {
+				danglingMethods.add(method);
+				danglingTimes.add(time);
+			}
+		}
+
+		/**
+		 * Adds the result of the chunk that follows this one in the same
+		 * file. Exits at the start of the next chunk are paired with entries
+		 * left open at the end of this one.
+		 */
+		void append(Result next) {
+			records += next.records;
+			for (Map.Entry<String, MethodStats> entry : next.methods.entrySet()) {
+				stats(entry.getKey()).add(entry.getValue());
+			}
+			for (Map.Entry<String, long[]> entry : next.sites.entrySet()) {
+				sites.computeIfAbsent(entry.getKey(), k -> new long[1])[0] += entry.getValue()[0];
+			}
+			for (int i = 0; i < next.danglingMethods.size(); i++) {
+				String method = next.danglingMethods.get(i);
+				OpenCalls calls = open.get(method);
+				if (calls != null && calls.size > 0) {
+					stats(method).record(next.danglingTimes.get(i) - calls.pop());
+				}
+			}
+			for (Map.Entry<String, OpenCalls> entry : next.open.entrySet()) {
+				OpenCalls calls = open.computeIfAbsent(entry.getKey(), k -> new OpenCalls());
+				OpenCalls later = entry.getValue();
+				for (int i = 0; i < later.size; i++) {
+					calls.push(later.times[i]);
+				}
+			}
+		}
+
+		/**
+		 * Adds the result for another file; calls are never paired across files
+		 */
+		void merge(Result other) {
+			records += other.records;
+			for (Map.Entry<String, MethodStats> entry : other.methods.entrySet()) {
+				stats(entry.getKey()).add(entry.getValue());
+			}
+			for (Map.Entry<String, long[]> entry : other.sites.entrySet()) {
+				sites.computeIfAbsent(entry.getKey(), k -> new long[1])[0] += entry.getValue()[0];
+			}
+		}
+	}
+
+	/**
+	 * Parses the records that start in one byte range of a file
+	 */
+	@SuppressWarnings("serial") //Never serialized; ForkJoinTask is Serializable only by inheritance
+	private static final class ChunkTask extends RecursiveTask<Result> {
+		private final Path path;
+		private final long start;
+		private final long end;
+
+		ChunkTask(Path path, long start, long end) {
+			this.path = path;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected Result compute() {
+			try {
+				return parse(path, start, end);
+			} catch (IOException e) {
+				System.err.println("Could not read " + path + ": " + e.getMessage());
+				return new Result();
+			}
+		}
+	}
+
+	/**
+	 * Summarises the logs named in args
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: java logging.LogAnalyzer <log file or directory>...");
+			System.exit(2);
+		}
+		try {
+			List<Path> files = findLogs(args);
+			if (files.isEmpty()) {
+				System.err.println("No log files found");
+				System.exit(1);
+			}
+			Result result = analyze(files, CHUNK_BYTES);
+			System.out.println("Read " + result.records + " records from " + files.size() + " file(s)");
+			print(result, System.out);
+		} catch (IOException e) {
+			System.err.println("Could not read logs: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Expands directories into the log files they contain
+	 */
+	static List<Path> findLogs(String[] args) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		for (String arg : args) {
+			Path path = Paths.get(arg);
+			if (!Files.isDirectory(path)) {
+				files.add(path);
+				continue;
+			}
+			try (DirectoryStream<Path> dir = Files.newDirectoryStream(path)) {
+				for (Path file : dir) {
+					if (file.getFileName().toString().matches(".*_logDetails(\\.\\d+)?\\.txt(\\.gz)?")) {
+						files.add(file);
+					}
+				}
+			}
+		}
+		files.sort(null);
+		return files;
+	}
+
+	/**
+	 * Parses the given logs in parallel.
+	 *
+	 * @param files      text logs, plain or gzipped
+	 * @param chunkBytes plain files larger than this are split into chunks of
+	 *                   this size, each parsed by its own task
+	 * @return the combined result
+	 * @throws IOException if a file's size cannot be read
+	 */
+	static Result analyze(List<Path> files, long chunkBytes) throws IOException {
+		List<List<ChunkTask>> byFile = new ArrayList<List<ChunkTask>>();
+		List<ChunkTask> all = new ArrayList<ChunkTask>();
+		for (Path file : files) {
+			List<ChunkTask> chunks = new ArrayList<ChunkTask>();
+			long size = isCompressed(file) ? Long.MAX_VALUE : Files.size(file);
+			if (size == Long.MAX_VALUE) {
+				chunks.add(new ChunkTask(file, 0, size)); //Gzip can only be read from the start
+			} else {
+				for (long start = 0; start < size || start == 0; start += chunkBytes) {
+					chunks.add(new ChunkTask(file, start, Math.min(size, start + chunkBytes)));
+				}
+			}
+			byFile.add(chunks);
+			all.addAll(chunks);
+		}
+		ForkJoinTask.invokeAll(all);
+
+		Result total = new Result();
+		for (List<ChunkTask> chunks : byFile) {
+			Result file = chunks.get(0).join();
+			for (int i = 1; i < chunks.size(); i++) {
+				file.append(chunks.get(i).join());
+			}
+			total.merge(file);
+		}
+		return total;
+	}
+
+	private static boolean isCompressed(Path file) {
+		return file.getFileName().toString().endsWith(".gz");
+	}
+
+	/**
+	 * Parses every record whose header line starts in [start, end). A record
+	 * that starts inside the range is read to its end even if that is past
+	 * the range, and a partial record at the start belongs to the previous
+	 * chunk and is skipped.
+	 */
+	static Result parse(Path path, long start, long end) throws IOException {
+		Result result = new Result();
+		Timestamps timestamps = new Timestamps();
+		ReadableByteChannel channel;
+		if (isCompressed(path)) {
+			channel = Channels.newChannel(new GZIPInputStream(Files.newInputStream(path), 64 * 1024));
+		} else {
+			FileChannel file = FileChannel.open(path);
+			file.position(Math.max(0, start - 1)); //From the byte before, so a line starting at start is not taken as partial
+			channel = file;
+		}
+		try (LineReader lines = new LineReader(channel, Math.max(0, start - 1))) {
+			boolean inRecord = false;
+			boolean staticEntry = false;
+			boolean staticExit = false;
+			long time = -1;
+			String line;
+			while ((line = lines.next()) != null) {
+				int mark = line.indexOf(HEADER_MARK);
+				if (mark > 0) {
+					if (lines.lineStart() >= end) {
+						break;
+					}
+					inRecord = lines.lineStart() >= start;
+					staticEntry = staticExit = false;
+					time = timestamps.parse(line.substring(0, mark));
+					if (inRecord) {
+						result.records++;
+					}
+				} else if (!inRecord) {
+					continue;
+				} else if (line.startsWith(METHOD_ENTRY)) {
+					result.entry(line.substring(METHOD_ENTRY.length()).trim(), time);
+				} else if (line.startsWith(METHOD_EXIT)) {
+					result.exit(line.substring(METHOD_EXIT.length()).trim(), time);
+				} else if (line.startsWith(STATIC_ENTRY)) {
+					staticEntry = true;
+				} else if (line.startsWith(STATIC_EXIT)) {
+					staticExit = true;
+				} else if (line.startsWith(STATIC_SITE) && (staticEntry || staticExit)) {
+					String site = line.substring(STATIC_SITE.length()).trim();
+					if (staticEntry) {
+						result.entry(site, time);
+					} else {
+						result.exit(site, time);
+					}
+					staticEntry = staticExit = false;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Strips the line number from a class.method:line call site
+	 */
+	static String methodOf(String site) {
+		int colon = site.lastIndexOf(':');
+		return colon > 0 ? site.substring(0, colon) : site;
+	}
+
+	/**
+	 * Prints the per-method table and the busiest call sites
+	 */
+	static void print(Result result, PrintStream out) {
+		List<Map.Entry<String, MethodStats>> methods = new ArrayList<Map.Entry<String, MethodStats>>(result.methods.entrySet());
+		methods.sort((a, b) -> {
+			int byCalls = Long.compare(b.getValue().entries, a.getValue().entries);
+			return byCalls != 0 ? byCalls : a.getKey().compareTo(b.getKey());
+		});
+		out.println();
+		out.println(String.format("%-50s %10s %10s %10s %10s", "method", "entries", "exits", "avg (s)", "max (s)"));
+		for (Map.Entry<String, MethodStats> entry : methods) {
+			MethodStats stats = entry.getValue();
+			String avg = stats.timed > 0 ? String.format("%.2f", stats.totalMillis / 1000.0 / stats.timed) : "-";
+			String max = stats.timed > 0 ? String.format("%.0f", stats.maxMillis / 1000.0) : "-";
+			out.println(String.format("%-50s %10d %10d %10s %10s", entry.getKey(), stats.entries, stats.exits, avg, max));
+		}
+
+		List<Map.Entry<String, long[]>> sites = new ArrayList<Map.Entry<String, long[]>>(result.sites.entrySet());
+		sites.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+		out.println();
+		out.println("Hot call sites:");
+		for (int i = 0; i < Math.min(TOP_SITES, sites.size()); i++) {
+			out.println(String.format("%10d  %s", sites.get(i).getValue()[0], sites.get(i).getKey()));
+		}
+	}
+
+	/**
+	 * Turns header timestamps into epoch millis. The text log uses the
+	 * SimpleFormatter date with the writer's locale, so a few English variants
+	 * are tried. Consecutive records usually share a timestamp, so the last
+	 * one is remembered.
+	 */
+	private static final class Timestamps {
+		private static final Locale[] LOCALES = { Locale.getDefault(), Locale.UK, Locale.US };
+
+		private final DateTimeFormatter[] formats = new DateTimeFormatter[LOCALES.length];
+		private String lastText;
+		private long lastMillis;
+
+		Timestamps() {
+			for (int i = 0; i < LOCALES.length; i++) {
+				formats[i] = new DateTimeFormatterBuilder().parseCaseInsensitive()
+						.appendPattern("MMM d, yyyy h:mm:ss a").toFormatter(LOCALES[i]);
+			}
+		}
+
+		/**
+		 * @return the time in millis, or -1 if the text is not a known format
+		 */
+		long parse(String text) {
+			if (text.equals(lastText)) {
+				return lastMillis;
+			}
+			long millis = -1;
+			for (DateTimeFormatter format : formats) {
+				try {
+					millis = LocalDateTime.parse(text, format).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+					break;
+				} catch (DateTimeParseException e) {
+					// try the next locale
+				}
+			}
+			lastText = text;
+			lastMillis = millis;
+			return millis;
+		}
+	}
+
+	/**
+	 * Reads lines from a channel through a fixed buffer while keeping track of
+	 * the file offset of each line. When the channel starts part way into the
+	 * file, everything up to the first line break is skipped.
+	 */
+	private static final class LineReader implements AutoCloseable {
+		private final ReadableByteChannel channel;
+		private final Charset charset = Charset.defaultCharset();
+		private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		private long bufferStart; //File offset of buffer position 0
+		private long lineStart;
+		private boolean skipPartial;
+		private boolean eof = false;
+
+		LineReader(ReadableByteChannel channel, long offset) {
+			this.channel = channel;
+			this.bufferStart = offset;
+			this.skipPartial = offset > 0;
+			buffer.limit(0);
+		}
+
+		/**
+		 * @return the file offset of the line last returned by next()
+		 */
+		long lineStart() {
+			return lineStart;
+		}
+
+		/**
+		 * @return the next line without its line ending, or null at the end
+		 */
+		String next() throws IOException {
+			while (true) {
+				int from = buffer.position();
+				for (int i = from; i < buffer.limit(); i++) {
+					if (buffer.get(i) != '\n') {
+						continue;
+					}
+					buffer.position(i + 1);
+					if (!skipPartial) {
+						return line(from, i);
+					}
+					skipPartial = false;
+					from = i + 1;
+				}
+				if (eof) {
+					if (from == buffer.limit() || skipPartial) {
+						return null;
+					}
+					buffer.position(buffer.limit());
+					return line(from, buffer.limit());
+				}
+				fill();
+			}
+		}
+
+		private String line(int from, int to) {
+			lineStart = bufferStart + from;
+			int length = to - from;
+			if (length > 0 && buffer.get(from + length - 1) == '\r') {
+				length--;
+			}
+			return new String(buffer.array(), from, length, charset);
+		}
+
+		/**
+		 * Moves unread bytes to the front and reads more, growing the buffer
+		 * only when a single line does not fit
+		 */
+		private void fill() throws IOException {
+			int unread = buffer.remaining();
+			if (skipPartial) {
+				bufferStart += buffer.limit(); //Nothing before the first newline is needed
+				buffer.clear();
+			} else {
+				bufferStart += buffer.position();
+				if (unread == buffer.capacity()) {
+					buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);
+				} else {
+					buffer.compact();
+				}
+			}
+			if (channel.read(buffer) < 0) {
+				eof = true;
+			}
+			buffer.flip();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
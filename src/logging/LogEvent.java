@@ -0,0 +1,114 @@
+package logging;
+
+/**
+ * A single logger event as captured on the calling thread. Events are kept
+ * small on purpose: the message text is only built when the event is written,
+ * which in async mode happens on the background writer thread.
+ */
+final class LogEvent {
+
+	/**
+	 * The kind of event, along with the AssignmentLogger method that produced
+	 * it (used as the source method in the written log record).
+	 */
+	enum Kind {
+		INITIALISE("logInitialise", true),
+		METHOD_ENTRY("logMethodEntry", true),
+		METHOD_EXIT("logMethodExit", true),
+		STATIC_ENTRY("logStaticMethodEntry", false),
+		STATIC_EXIT("logStaticMethodExit", false),
+		CONSTRUCTOR("logConstructor", true),
+		MAIN("logMain", false),
+		EXCEPTION("logCatchException", false),
+		MESSAGE("logMessage", false);
+
+		final String sourceMethod;
+		final boolean detailed; //True if the message starts with the class details block
+
+		Kind(String sourceMethod, boolean detailed) {
+			this.sourceMethod = sourceMethod;
+			this.detailed = detailed;
+		}
+
+		/**
+		 * Builds the log message for this kind of event. Shared by the logger
+		 * and the binary log decoder so both produce the same text.
+		 * 
+		 * @param details the class details block, or "" if already printed
+		 * @param text    the caller summary, the exception text for EXCEPTION, or
+		 *                the caller summary and message for MESSAGE
+		 * @return the message as it appears in the text log
+		 */
+		String message(String details, String text) {
+			switch (this) {
+				case INITIALISE:
+					return "\n" + details + "Initialise Logger from main\n";
+				case METHOD_ENTRY:
+					return "\n" + details + "Method entry: " + text + "\n";
+				case METHOD_EXIT:
+					return "\n" + details + "Method exit: " + text + "\n";
+				case STATIC_ENTRY:
+					return "\n" + "\nStatic method entry: static calls generate minimal logs, call logConstructor(this) in constructor to log full class details - must be after any 'super' calls" + "\n at: " + text + "\n";
+				case STATIC_EXIT:
+					return "\n" + "\nStatic method exit: static calls generate minimal logs, call logConstructor(this) in constructor to log full class details - must be after any 'super' calls" + "\n at: " + text + "\n";
+				case CONSTRUCTOR:
+					return "\n" + details + " Constructor call at: " + text + "\n";
+				case MAIN:
+					return "\n" + "\nMain method call: static calls generate minimal logs, call logConstructor(this) in constructor to log full class details - must be after any 'super' calls" + "\n";
+				case EXCEPTION:
+					return "\nException " + text + "\n";
+				default:
+					return "\nMessage from " + text + "\n";
+			}
+		}
+	}
+
+	final Kind kind;
+	final long millis;
+	final long threadId;
+	final Object classId;
+	final CallSite site;
+	final Exception exception;
+	final String message; //Caller-supplied text, already built, or null
+
+	/**
+	 * @param kind      what happened
+	 * @param classId   the object passed to the logger, or null for static calls
+	 * @param site      where the logger was called from, or null
+	 * @param exception the caught exception for EXCEPTION events, otherwise null
+	 */
+	LogEvent(Kind kind, Object classId, CallSite site, Exception exception) {
+		this(kind, classId, site, exception, null);
+	}
+
+	/**
+	 * @param kind      what happened
+	 * @param classId   the object passed to the logger, or null for static calls
+	 * @param site      where the logger was called from, or null
+	 * @param exception the caught exception for EXCEPTION events, otherwise null
+	 * @param message   text supplied by the caller, or null
+	 */
+	LogEvent(Kind kind, Object classId, CallSite site, Exception exception, String message) {
+		this.kind = kind;
+		this.millis = System.currentTimeMillis();
+		this.threadId = Thread.currentThread().threadId();
+		this.classId = classId;
+		this.site = site;
+		this.exception = exception;
+		this.message = message;
+	}
+
+	/**
+	 * @return the text that goes after the event's label: the caller summary,
+	 *         the exception description for EXCEPTION events, followed by the
+	 *         caller's message if there is one
+	 */
+	String text() {
+		if (exception != null) {
+			String text = exception.toString() + " " + exception.getMessage();
+			return message != null ? text + " - " + message : text;
+		}
+		String summary = site != null ? site.summary : null;
+		return message != null ? summary + ": " + message : summary;
+	}
+}
@@ -0,0 +1,265 @@
+package logging;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Decides which entry/exit/constructor calls are logged. Rules are read from
+ * a properties file where each key is a package, a class or a class.method
+ * and each value is {@code on}, {@code off} or {@code 1/N} (log one call in
+ * every N):
+ * <pre>
+ *   default=on
+ *   gui=on
+ *   instruments.Instrument.getImagePath=off
+ *   gui.InstrumentGUI.setBusy=1/20
+ * </pre>
+ * The most specific rule wins: method, then class (then its outer class),
+ * then the longest matching package, then {@code default}.
+ *
+ * Rules are resolved once per class. For instance calls where the class has
+ * no method rules the decision needs no stack walk at all; otherwise only the
+ * caller's frame is looked at, with no line lookup or string building.
+ */
+final class LogFilter {
+
+	/**
+	 * Per-thread record of sampled calls that have made their entry decision
+	 * but not yet exited, so each exit follows its own entry. As in
+	 * CallTimings, an exit is matched with the most recent entry of the same
+	 * object (or class, for static calls) and method, and entries whose exit
+	 * never came, for example because an exception skipped it, are dropped
+	 * when an outer call exits.
+	 */
+	private static final class Calls {
+		private static final int MAX_DEPTH = 1024; //Past this the thread is assumed to have lost its exits and starts over
+
+		long seen = 0; //Entries and constructors so far, for picking one in every N
+		private Object[] owners = new Object[32];
+		private String[] methods = new String[32]; //Null when the rule did not need the method name
+		private boolean[] admitted = new boolean[32];
+		private int depth = 0;
+
+		void push(Object owner, String method, boolean admit) {
+			if (depth == MAX_DEPTH) {
+				Arrays.fill(owners, null);
+				Arrays.fill(methods, null);
+				depth = 0;
+			}
+			if (depth == owners.length) {
+				owners = Arrays.copyOf(owners, depth * 2);
+				methods = Arrays.copyOf(methods, depth * 2);
+				admitted = Arrays.copyOf(admitted, depth * 2);
+			}
+			owners[depth] = owner;
+			methods[depth] = method;
+			admitted[depth] = admit;
+			depth++;
+		}
+
+		/**
+		 * @return whether the matching entry was logged; false if there is none
+		 */
+		boolean pop(Object owner, String method) {
+			for (int i = depth - 1; i >= 0; i--) {
+				if (owners[i] == owner && (method == null ? methods[i] == null : method.equals(methods[i]))) {
+					boolean admit = admitted[i];
+					for (int j = i; j < depth; j++) {
+						owners[j] = null; //Let go of the objects
+						methods[j] = null;
+					}
+					depth = i;
+					return admit;
+				}
+			}
+			return false; //Exit without a matching entry
+		}
+	}
+
+	/**
+	 * One rule: always log, never log, or log one call in every N
+	 */
+	static final class Rule {
+		static final Rule ON = new Rule(1);
+		static final Rule OFF = new Rule(0);
+
+		private final int every;
+		private final ThreadLocal<Calls> sampling;
+
+		private Rule(int every) {
+			this.every = every;
+			this.sampling = every > 1 ? ThreadLocal.withInitial(Calls::new) : null;
+		}
+
+		/**
+		 * Decides whether to log this call. When sampling, an exit is logged
+		 * only if its matching entry was, so the log keeps whole pairs.
+		 *
+		 * @param kind   the kind of call
+		 * @param owner  the object passed to the logger, or the caller's class
+		 *               for static calls
+		 * @param method the caller's method name, or null if it was not looked
+		 *               up (then the entry and its exit both pass null)
+		 */
+		boolean admit(LogEvent.Kind kind, Object owner, String method) {
+			if (sampling == null) {
+				return every == 1;
+			}
+			Calls calls = sampling.get();
+			if (kind == LogEvent.Kind.METHOD_EXIT || kind == LogEvent.Kind.STATIC_EXIT) {
+				return calls.pop(owner, method);
+			}
+			boolean admitted = calls.seen++ % every == 0;
+			if (kind != LogEvent.Kind.CONSTRUCTOR) {
+				calls.push(owner, method, admitted);
+			}
+			return admitted;
+		}
+
+		static Rule parse(String value) {
+			String v = value.trim().toLowerCase();
+			if (v.equals("on")) {
+				return ON;
+			}
+			if (v.equals("off")) {
+				return OFF;
+			}
+			if (v.startsWith("1/")) {
+				int every = Integer.parseInt(v.substring(2).trim());
+				if (every > 0) {
+					return every == 1 ? ON : new Rule(every);
+				}
+			}
+			throw new IllegalArgumentException("expected on, off or 1/N but was '" + value + "'");
+		}
+	}
+
+	/**
+	 * The rules that apply to one class
+	 */
+	static final class ClassRules {
+		final Rule classRule;
+		final Map<String, Rule> methodRules; //Null when the class has no method rules
+
+		private ClassRules(Rule classRule, Map<String, Rule> methodRules) {
+			this.classRule = classRule;
+			this.methodRules = methodRules;
+		}
+
+		/**
+		 * @return the rule for the named method of this class
+		 */
+		Rule ruleFor(String method) {
+			if (methodRules != null) {
+				Rule rule = methodRules.get(method);
+				if (rule != null) {
+					return rule;
+				}
+			}
+			return classRule;
+		}
+	}
+
+	private final Map<String, Rule> rules; //Package and class rules by name
+	private final Map<String, Map<String, Rule>> methodRulesByClass; //Method rules by class name, then method
+	private final Rule defaultRule;
+	private final ClassValue<ClassRules> resolved = new ClassValue<ClassRules>() {
+		@Override
+		protected ClassRules computeValue(Class<?> type) {
+			return resolve(type);
+		}
+	};
+
+	private LogFilter(Map<String, Rule> rules, Map<String, Map<String, Rule>> methodRulesByClass, Rule defaultRule) {
+		this.rules = rules;
+		this.methodRulesByClass = methodRulesByClass;
+		this.defaultRule = defaultRule;
+	}
+
+	/**
+	 * Reads the rules file.
+	 *
+	 * @param path the properties file to read
+	 * @return the filter, or null if every rule is "on" (nothing to filter)
+	 * @throws IOException if the file cannot be read
+	 */
+	static LogFilter load(String path) throws IOException {
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(path)) {
+			props.load(in);
+		}
+		Map<String, Rule> rules = new HashMap<String, Rule>();
+		Map<String, Map<String, Rule>> methodRules = new HashMap<String, Map<String, Rule>>();
+		Rule defaultRule = Rule.ON;
+		boolean filtering = false;
+
+		for (String key : props.stringPropertyNames()) {
+			Rule rule;
+			try {
+				rule = Rule.parse(props.getProperty(key));
+			} catch (IllegalArgumentException e) {
+				System.err.println("Ignoring log filter rule " + key + ": " + e.getMessage());
+				continue;
+			}
+			filtering |= rule != Rule.ON;
+			String name = key.trim();
+			if (name.equals("default")) {
+				defaultRule = rule;
+				continue;
+			}
+			rules.put(name, rule);
+			int dot = name.lastIndexOf('.');
+			if (dot > 0) {
+				methodRules.computeIfAbsent(name.substring(0, dot), k -> new HashMap<String, Rule>())
+						.put(name.substring(dot + 1), rule);
+			}
+		}
+		return filtering ? new LogFilter(rules, methodRules, defaultRule) : null;
+	}
+
+	/**
+	 * @return the rules for a class, resolved on first use
+	 */
+	ClassRules rulesFor(Class<?> type) {
+		return resolved.get(type);
+	}
+
+	private ClassRules resolve(Class<?> type) {
+		Map<String, Rule> methods = null;
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			Map<String, Rule> declared = methodRulesByClass.get(c.getName());
+			if (declared != null) {
+				if (methods == null) {
+					methods = new HashMap<String, Rule>();
+				}
+				for (Map.Entry<String, Rule> entry : declared.entrySet()) {
+					methods.putIfAbsent(entry.getKey(), entry.getValue()); //Subclass rules win
+				}
+			}
+		}
+		return new ClassRules(classRule(type.getName()), methods);
+	}
+
+	/**
+	 * Finds the most specific class or package rule for a class name
+	 */
+	private Rule classRule(String className) {
+		String name = className;
+		while (true) {
+			Rule rule = rules.get(name);
+			if (rule != null) {
+				return rule;
+			}
+			int cut = Math.max(name.lastIndexOf('$'), name.lastIndexOf('.'));
+			if (cut < 0) {
+				return defaultRule;
+			}
+			name = name.substring(0, cut);
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package logging;
+
+import java.io.IOException;
+
+/**
+ * Somewhere the logger can write events to other than the JUL handlers, such
+ * as the file behind the async writer or a binary event log.
+ */
+interface LogSink {
+
+	/**
+	 * Writes one event. Output may be buffered until {@link #flush()}.
+	 */
+	void write(LogEvent event) throws IOException;
+
+	/**
+	 * Pushes any buffered output to disk.
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Flushes and releases the underlying file(s).
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,226 @@
+package logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Formatter;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Text log writer that appends into a memory-mapped file segment instead of
+ * going through a stream, so writing an event is a memory copy rather than a
+ * write syscall. The log moves on to a new segment when the current one is
+ * full or when the time period of the file name pattern (hourly,
+ * minuteByminute or constant) rolls over:
+ * <pre>
+ *   user_13_logDetails.txt, user_13_logDetails.1.txt, user_14_logDetails.txt ...
+ * </pre>
+ * A finished segment is unmapped and trimmed to the bytes actually written;
+ * a segment left padded by a crash is trimmed when it is next opened.
+ * Finished segments can optionally be gzip-compressed on a background thread.
+ *
+ * Data reaches the OS page cache as soon as it is written, so it survives the
+ * process dying, but flush() does not force it to disk.
+ */
+final class MappedLogSink implements LogSink {
+
+	private final String prefix;
+	private final DateTimeFormatter dtf;
+	private final ChronoUnit period;
+	private final long maxBytes;
+	private final Formatter formatter;
+	private final Charset charset = Charset.defaultCharset();
+	private final ExecutorService compressor; //Null when old segments are kept as they are
+
+	private FileChannel channel;
+	private Arena arena;
+	private MemorySegment memory;
+	private long position;
+	private long periodEndMillis;
+	private String stamp;
+	private int sequence;
+	private boolean closed = false;
+
+	/**
+	 * @param prefix      start of every file name, e.g. "user_"
+	 * @param pattern     date pattern for the file name, such as
+	 *                    AssignmentLogger.hourly; it also sets the rotation period
+	 * @param maxBytes    size at which a segment is closed and a new one started
+	 * @param formatter   formats each event, normally a SimpleFormatter
+	 * @param compressOld true to gzip finished segments in the background
+	 */
+	MappedLogSink(String prefix, String pattern, long maxBytes, Formatter formatter, boolean compressOld) {
+		this.prefix = prefix;
+		this.dtf = DateTimeFormatter.ofPattern(pattern);
+		this.period = periodOf(pattern);
+		this.maxBytes = maxBytes;
+		this.formatter = formatter;
+		this.compressor = compressOld ? Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "AssignmentLogger-gzip");
+			thread.setDaemon(true);
+			return thread;
+		}) : null;
+	}
+
+	/**
+	 * Works out how often a file name pattern changes
+	 */
+	static ChronoUnit periodOf(String pattern) {
+		if (pattern.contains("s")) {
+			return ChronoUnit.SECONDS;
+		} else if (pattern.contains("m")) {
+			return ChronoUnit.MINUTES;
+		} else if (pattern.contains("H") || pattern.contains("h")) {
+			return ChronoUnit.HOURS;
+		}
+		return ChronoUnit.DAYS;
+	}
+
+	@Override
+	public synchronized void write(LogEvent event) throws IOException {
+		if (closed) {
+			return;
+		}
+		byte[] bytes = formatter.format(AssignmentLogger.toRecord(event)).getBytes(charset);
+		if (memory == null || event.millis >= periodEndMillis || position + bytes.length > memory.byteSize()) {
+			rotate(event.millis, bytes.length);
+		}
+		MemorySegment.copy(bytes, 0, memory, ValueLayout.JAVA_BYTE, position, bytes.length);
+		position += bytes.length;
+	}
+
+	/**
+	 * Finishes the current segment (if any) and maps the next one
+	 */
+	private void rotate(long millis, int needed) throws IOException {
+		LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+		String nextStamp = dtf.format(time);
+		if (memory != null) {
+			finishSegment();
+			sequence = nextStamp.equals(stamp) ? sequence + 1 : 0;
+		}
+		stamp = nextStamp;
+		while (Files.exists(archivePath(segmentPath()))) {
+			sequence++; //The stamp repeats (e.g. the same hour tomorrow), so never reuse an archived name
+		}
+		periodEndMillis = time.truncatedTo(period).plus(1, period).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+		channel = FileChannel.open(segmentPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size = channel.size();
+		arena = Arena.ofShared();
+		memory = channel.map(FileChannel.MapMode.READ_WRITE, 0, size + Math.max(maxBytes, needed), arena);
+		position = endOfText(memory, size); //Carry on after anything already in the file
+	}
+
+	/**
+	 * Finds where the text in a reopened segment ends. A run that died before
+	 * trimming its segment leaves the unused mapping as NUL padding, which the
+	 * next run overwrites instead of appending after.
+	 * 
+	 * @param memory the mapped segment
+	 * @param size   the file's size before it was mapped
+	 * @return the offset just past the last non-NUL byte
+	 */
+	private static long endOfText(MemorySegment memory, long size) {
+		long end = size;
+		while (end > 0 && memory.get(ValueLayout.JAVA_BYTE, end - 1) == 0) {
+			end--;
+		}
+		return end;
+	}
+
+	private Path segmentPath() {
+		return Paths.get(prefix + stamp + "_logDetails" + (sequence > 0 ? "." + sequence : "") + ".txt");
+	}
+
+	private static Path archivePath(Path segment) {
+		return Paths.get(segment + ".gz");
+	}
+
+	/**
+	 * Finishes the current segment and hands it to the compressor
+	 */
+	private void finishSegment() throws IOException {
+		Path path = releaseSegment();
+		if (compressor != null) {
+			compressor.execute(() -> compress(path));
+		}
+	}
+
+	/**
+	 * Unmaps the current segment and trims the file to what was written
+	 * 
+	 * @return the segment's file
+	 */
+	private Path releaseSegment() throws IOException {
+		Path path = segmentPath();
+		arena.close();
+		channel.truncate(position);
+		channel.close();
+		memory = null;
+		return path;
+	}
+
+	/**
+	 * Replaces a finished segment with a .gz copy. An existing archive is
+	 * never overwritten; the segment is left uncompressed instead.
+	 */
+	private static void compress(Path path) {
+		Path gz = archivePath(path);
+		try (InputStream in = Files.newInputStream(path);
+				OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz, StandardOpenOption.CREATE_NEW), 64 * 1024)) {
+			in.transferTo(out);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		try {
+			Files.delete(path);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void flush() {
+		// nothing to do, mapped pages are already visible to the OS
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (memory != null) {
+				releaseSegment();
+			}
+		}
+		if (compressor != null) {
+			compressor.shutdown();
+			try {
+				compressor.awaitTermination(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
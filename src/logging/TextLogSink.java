@@ -0,0 +1,44 @@
+package logging;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.logging.Formatter;
+
+/**
+ * Appends events to the text log file, formatted exactly as the file handler
+ * would format them. Used by the async writer in place of the FileHandler so
+ * that a whole batch goes out with one flush.
+ */
+final class TextLogSink implements LogSink {
+
+	private final Formatter formatter;
+	private final Writer out;
+
+	/**
+	 * @param fileName  the log file to append to
+	 * @param formatter formats each event, normally the file handler's formatter
+	 * @throws IOException if the file cannot be opened
+	 */
+	TextLogSink(String fileName, Formatter formatter) throws IOException {
+		this.formatter = formatter;
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName, true)), 64 * 1024);
+	}
+
+	@Override
+	public void write(LogEvent event) throws IOException {
+		out.write(formatter.format(AssignmentLogger.toRecord(event)));
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
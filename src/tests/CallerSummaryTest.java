@@ -0,0 +1,141 @@
+package tests;
+
+import logging.AssignmentLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Checks that the logger names the right caller (class.method:line) for
+ * instance, static and message calls, including from a nested class, a
+ * lambda and deep in the stack, and that a call site logged twice still
+ * reports each caller's own line. Records are caught from the logger's
+ * java.util.logging Logger, so nothing has to be read back from the log file.
+ * Exits with a non-zero code on failure.
+ */
+public class CallerSummaryTest {
+
+    private static final int STACK_DEPTH = 40; //Roughly where Swing event handlers sit when they call the logger
+    private static final List<String> messages = new ArrayList<>();
+
+    /**
+     * A nested class, so the caller's class name contains a '$'
+     */
+    private static final class Nested {
+        int entryLine;
+
+        void run() {
+            entryLine = line(); AssignmentLogger.logMethodEntry(this);
+        }
+    }
+
+    public static void main(String[] args) {
+        Logger log = Logger.getLogger("External file log");
+        log.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        AssignmentLogger.setEnabled(true);
+        int failures = 0;
+        String self = CallerSummaryTest.class.getName();
+
+        int line = line(); AssignmentLogger.logMessage("from main");
+        failures += expect("message names main and its line", "Message from " + self + ".main:" + line + ": from main");
+
+        CallerSummaryTest target = new CallerSummaryTest();
+        line = target.instanceCall();
+        failures += expect("method entry names the instance method and its line", "Method entry: " + self + ".instanceCall:" + line);
+
+        line = staticCall();
+        failures += expect("static entry names the static method and its line", " at: " + self + ".staticCall:" + line);
+
+        Nested nested = new Nested();
+        nested.run();
+        failures += expect("nested class is named with its '$'", "Method entry: " + self + "$Nested.run:" + nested.entryLine);
+
+        int[] lambdaLine = new int[1];
+        Runnable lambda = () -> {
+            lambdaLine[0] = line(); AssignmentLogger.logMessage("from lambda");
+        };
+        lambda.run();
+        failures += expect("lambda is reported at its own line", self + ".lambda$main$0:" + lambdaLine[0] + ": from lambda");
+
+        int[] deepLine = new int[1];
+        atDepth(STACK_DEPTH, () -> {
+            deepLine[0] = line(); AssignmentLogger.logMessage("from deep");
+        });
+        failures += expect("caller is found " + STACK_DEPTH + " frames down", ":" + deepLine[0] + ": from deep");
+
+        int first = target.instanceCall();
+        failures += expect("a cached call site keeps its line", "Method entry: " + self + ".instanceCall:" + first);
+        line = line(); AssignmentLogger.logMessage("second site");
+        failures += expect("another line of the same method is its own call site", "Message from " + self + ".main:" + line + ": second site");
+
+        if (failures == 0) {
+            System.out.println("CallerSummaryTest: ALL PASSED");
+        } else {
+            System.err.println("CallerSummaryTest: FAILED tests=" + failures);
+            System.exit(1);
+        }
+    }
+
+    private int instanceCall() {
+        int line = line(); AssignmentLogger.logMethodEntry(this);
+        return line;
+    }
+
+    private static int staticCall() {
+        int line = line(); AssignmentLogger.logStaticMethodEntry();
+        return line;
+    }
+
+    /**
+     * Runs the task underneath {@code depth} extra stack frames.
+     */
+    private static void atDepth(int depth, Runnable task) {
+        if (depth <= 0) {
+            task.run();
+            return;
+        }
+        atDepth(depth - 1, task);
+    }
+
+    /**
+     * @return the caller's line number, for comparing with a log call made on
+     * the same line
+     */
+    private static int line() {
+        return StackWalker.getInstance().walk(frames -> frames.skip(1).findFirst()).get().getLineNumber();
+    }
+
+    /**
+     * Checks the most recent log message contains the expected text (and,
+     * if given, the expected method name)
+     */
+    private static int expect(String label, String expected, String... alsoContains) {
+        String last = messages.isEmpty() ? "" : messages.get(messages.size() - 1);
+        boolean passed = last.contains(expected);
+        for (String text : alsoContains) {
+            passed &= last.contains(text);
+        }
+        if (passed) {
+            System.out.println("[PASS] " + label);
+            return 0;
+        }
+        System.err.println("[FAIL] " + label + ": expected " + expected + " in " + last.trim());
+        return 1;
+    }
+}
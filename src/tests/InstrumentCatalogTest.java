@@ -0,0 +1,101 @@
+package tests;
+
+import instruments.CatalogInstrument;
+import instruments.Guitar;
+import instruments.Instrument;
+import instruments.InstrumentCatalog;
+import instruments.InstrumentFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Loads a generated catalog of thousands of instruments through
+ * -Dinstruments.catalog and resolves them with InstrumentFactory alongside
+ * the built-in ones. Exits with a non-zero code on failure.
+ */
+public class InstrumentCatalogTest {
+
+    private static final int GENERATED = 5_000;
+
+    public static void main(String[] args) throws IOException {
+        Path catalog = Files.createTempFile("catalog", ".properties");
+        try {
+            writeCatalog(catalog);
+            System.setProperty("instruments.catalog", catalog.toString()); //Before anything reads the catalog
+            int failures = 0;
+
+            Locale es = Locale.forLanguageTag("es");
+            Instrument violin = resolve("Violin", Locale.ENGLISH);
+            failures += expect("'Violin' is a catalog instrument", violin instanceof CatalogInstrument);
+            failures += expect("its key is 'violin'", violin != null && "violin".equals(violin.getKey()));
+            failures += expect("its Spanish description comes from the catalog",
+                    violin != null && "Un instrumento de cuerda frotada.".equals(violin.getDescription(es)));
+            failures += expect("'viol\u00edn' with its accent resolves in Spanish", resolve("viol\u00edn", es) instanceof CatalogInstrument);
+            failures += expect("built-in 'Guitarra' is still a Guitar", resolve("Guitarra", es) instanceof Guitar);
+            failures += expect("built-in Guitar has key 'guitar'", "guitar".equals(new Guitar().getKey()));
+            failures += expect("duplicate 'guitar' in the file is skipped", resolve("Not a guitar", Locale.ENGLISH) == null);
+            failures += expect("entry without a sound is skipped", InstrumentCatalog.entry("broken") == null);
+            failures += expect("catalog has every generated entry",
+                    InstrumentCatalog.entries().size() == 3 + 1 + GENERATED);
+
+            int resolved = 0;
+            for (int i = 0; i < GENERATED; i++) {
+                Instrument generated = resolve("Instrument " + i, Locale.ENGLISH);
+                if (generated != null && ("gen" + i).equals(generated.getKey())) {
+                    resolved++;
+                }
+            }
+            failures += expect("all " + GENERATED + " generated names resolve (" + resolved + ")", resolved == GENERATED);
+            failures += expect("'violn' suggests Violin",
+                    InstrumentFactory.suggest("violn", Locale.ENGLISH, 5).contains("Violin"));
+
+            if (failures == 0) {
+                System.out.println("InstrumentCatalogTest: ALL PASSED");
+            } else {
+                System.err.println("InstrumentCatalogTest: FAILED tests=" + failures);
+                System.exit(1);
+            }
+        } finally {
+            Files.deleteIfExists(catalog);
+        }
+    }
+
+    private static void writeCatalog(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("violin.name.en=Violin\n");
+            out.write("violin.name.es=Viol\u00edn\n");
+            out.write("violin.description.en=A bowed string instrument.\n");
+            out.write("violin.description.es=Un instrumento de cuerda frotada.\n");
+            out.write("violin.image=resources/images/violin.jpg\n");
+            out.write("violin.sound=resources/sounds/Violin\n");
+            out.write("guitar.name.en=Not a guitar\n");
+            out.write("guitar.image=resources/images/guitar.jpg\n");
+            out.write("guitar.sound=resources/sounds/Guitar\n");
+            out.write("broken.name.en=Broken\n");
+            out.write("broken.image=resources/images/broken.jpg\n");
+            for (int i = 0; i < GENERATED; i++) {
+                out.write("gen" + i + ".name.en=Instrument " + i + "\n");
+                out.write("gen" + i + ".image=resources/images/gen.jpg\n");
+                out.write("gen" + i + ".sound=resources/sounds/Gen" + i + "\n");
+            }
+        }
+    }
+
+    private static Instrument resolve(String input, Locale locale) {
+        try {
+            return InstrumentFactory.fromInput(input, locale);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static int expect(String label, boolean ok) {
+        System.out.println((ok ? "[PASS] " : "[FAIL] ") + label);
+        return ok ? 0 : 1;
+    }
+}
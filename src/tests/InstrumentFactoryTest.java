@@ -8,7 +8,10 @@ import instruments.InstrumentFactory;
 import instruments.Piano;
 // import logging.AssignmentLogger;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.stream.Stream;
 
 /**
  * Lightweight test harness for InstrumentFactory without external frameworks.
@@ -32,7 +35,29 @@ public class InstrumentFactoryTest {
         // Raw keys accepted regardless of locale
         failures += expectInstrument("raw 'guitar'", "guitar", Locale.ENGLISH, Guitar.class);
 
+        // Case, surrounding whitespace and the UI locale do not matter
+        failures += expectInstrument("'  GUITARRA ' (EN) -> Guitar", "  GUITARRA ", Locale.ENGLISH, Guitar.class);
+
         failures += expectThrows("invalid name throws", "not-an-instrument", Locale.ENGLISH);
+        failures += expectThrows("partial name throws", "guit", Locale.ENGLISH);
+
+        // One shared instance per instrument; a new one only when asked for
+        failures += expectShared("'Guitar' and 'guitarra' share one instance", "Guitar", " guitarra", true);
+        failures += expectShared("newInstance('Guitar') is a new Guitar", "Guitar", null, false);
+
+        // Batches resolve in parallel, in order, with an error per bad name
+        failures += expectBatch();
+
+        // Type-ahead: prefixes and small typos, names of the UI language first
+        failures += expectSuggestion("suggest 'guitr' -> Guitar", "guitr", Locale.ENGLISH, "Guitar");
+        failures += expectSuggestion("suggest 'tamb' -> Tambor", "tamb", Locale.ENGLISH, "Tambor");
+        failures += expectSuggestion("suggest 'pinao' -> Piano", "pinao", Locale.ENGLISH, "Piano");
+        failures += expectSuggestion("suggest 'gui' (ES) -> Guitarra", "gui", Locale.forLanguageTag("es"), "Guitarra");
+        failures += expectSuggestion("suggest 'xyz' -> nothing", "xyz", Locale.ENGLISH, null);
+
+        // Names read again from the bundles still resolve
+        InstrumentFactory.reloadNames();
+        failures += expectInstrument("Tambor after reload -> Drum", "Tambor", Locale.forLanguageTag("es"), Drum.class);
 
         if (failures == 0) {
             System.out.println("InstrumentFactoryTest: ALL PASSED");
@@ -62,6 +87,74 @@ public class InstrumentFactoryTest {
         }
     }
 
+    private static int expectShared(String label, String input, String other, boolean shared) {
+        try {
+            Instrument first = InstrumentFactory.fromInput(input, Locale.ENGLISH);
+            Instrument second = other != null
+                    ? InstrumentFactory.fromInput(other, Locale.forLanguageTag("es"))
+                    : InstrumentFactory.newInstance(input, Locale.ENGLISH);
+            boolean ok = shared ? first == second : first != second && first.getClass() == second.getClass();
+            if (!ok) {
+                System.err.println("[FAIL] " + label + " first=" + first + " second=" + second);
+                return 1;
+            }
+            System.out.println("[PASS] " + label);
+            return 0;
+        } catch (Exception e) {
+            System.err.println("[FAIL] " + label + " threw " + e);
+            return 1;
+        }
+    }
+
+    private static int expectBatch() {
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 30_000; i++) {
+            inputs.add(i % 3 == 0 ? "Guitar" : i % 3 == 1 ? " tambor " : "kazoo");
+        }
+        inputs.add(null);
+        int failures = 0;
+        try {
+            Instrument guitar = InstrumentFactory.fromInput("Guitar", Locale.ENGLISH);
+            InstrumentFactory.BatchResult result = InstrumentFactory.resolveAll(inputs, Locale.ENGLISH);
+            boolean ordered = result.size() == inputs.size();
+            for (int i = 0; ordered && i < 30_000; i++) {
+                ordered = i % 3 == 0 ? result.instrument(i) == guitar && result.error(i) == null
+                        : i % 3 == 1 ? result.instrument(i) instanceof Drum
+                        : result.instrument(i) == null && result.error(i) != null && result.error(i).contains("kazoo");
+            }
+            failures += expect("batch of 30001 resolves each name in order", ordered);
+            failures += expect("batch reports 10001 failures including null",
+                    result.failures() == 10_001 && result.error(30_000) != null);
+            InstrumentFactory.BatchResult streamed = InstrumentFactory.resolveAll(Stream.of("Piano", "nope"), Locale.ENGLISH);
+            failures += expect("stream batch resolves",
+                    streamed.instrument(0) instanceof Piano && streamed.error(1) != null && streamed.failures() == 1);
+        } catch (Exception e) {
+            System.err.println("[FAIL] batch threw " + e);
+            failures++;
+        }
+        return failures;
+    }
+
+    private static int expect(String label, boolean ok) {
+        if (ok) {
+            System.out.println("[PASS] " + label);
+        } else {
+            System.err.println("[FAIL] " + label);
+        }
+        return ok ? 0 : 1;
+    }
+
+    private static int expectSuggestion(String label, String input, Locale locale, String expectedFirst) {
+        List<String> found = InstrumentFactory.suggest(input, locale, 5);
+        boolean ok = expectedFirst == null ? found.isEmpty() : !found.isEmpty() && found.get(0).equals(expectedFirst);
+        if (!ok) {
+            System.err.println("[FAIL] " + label + " got=" + found);
+            return 1;
+        }
+        System.out.println("[PASS] " + label);
+        return 0;
+    }
+
     private static int expectThrows(String label, String input, Locale locale) {
         // AssignmentLogger.logStaticMethodEntry();
         try {
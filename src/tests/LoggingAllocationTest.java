@@ -0,0 +1,88 @@
+package tests;
+
+import logging.AssignmentLogger;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that AssignmentLogger calls allocate nothing while logging is
+ * disabled, and that message suppliers are only called when it is enabled.
+ * Uses the per-thread allocation counter of the HotSpot ThreadMXBean.
+ * Exits with a non-zero code on failure.
+ */
+public class LoggingAllocationTest {
+
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 100_000;
+    private static final long TOLERANCE_BYTES = 1_024; //Well under one byte per call
+
+    private static int supplierCalls = 0;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("LoggingAllocationTest: SKIPPED (allocation counter not supported)");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        int failures = 0;
+
+        AssignmentLogger.setEnabled(false);
+        LoggingAllocationTest target = new LoggingAllocationTest();
+        Integer boxed = 42;
+        for (int i = 0; i < WARMUP; i++) {
+            logEverything(target, boxed);
+        }
+        long threadId = Thread.currentThread().threadId();
+        long overhead = threads.getThreadAllocatedBytes(threadId);
+        overhead = threads.getThreadAllocatedBytes(threadId) - overhead; //Cost of reading the counter itself
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            logEverything(target, boxed);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+        failures += expect("disabled calls allocate nothing (" + allocated + " bytes for " + ITERATIONS + " rounds)",
+                allocated <= TOLERANCE_BYTES);
+        failures += expect("supplier not called while disabled", supplierCalls == 0);
+
+        AssignmentLogger.setEnabled(true);
+        AssignmentLogger.logMessage(() -> {
+            supplierCalls++;
+            return "allocation test message";
+        });
+        failures += expect("supplier called once while enabled", supplierCalls == 1);
+
+        if (failures == 0) {
+            System.out.println("LoggingAllocationTest: ALL PASSED");
+        } else {
+            System.err.println("LoggingAllocationTest: FAILED tests=" + failures);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * One of every kind of log call, as they would appear in instrumented code
+     */
+    private static void logEverything(Object target, Integer boxed) {
+        AssignmentLogger.logMethodEntry(target);
+        AssignmentLogger.logStaticMethodEntry();
+        AssignmentLogger.logConstructor(target);
+        AssignmentLogger.logMessage(() -> {
+            supplierCalls++;
+            return "never built";
+        });
+        AssignmentLogger.logMessage("value %s", boxed);
+        AssignmentLogger.logMessage("values %s %s", boxed, target);
+        AssignmentLogger.logStaticMethodExit();
+        AssignmentLogger.logMethodExit(target);
+    }
+
+    private static int expect(String label, boolean passed) {
+        if (passed) {
+            System.out.println("[PASS] " + label);
+            return 0;
+        }
+        System.err.println("[FAIL] " + label);
+        return 1;
+    }
+}
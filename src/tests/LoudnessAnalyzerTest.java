@@ -0,0 +1,131 @@
+package tests;
+
+import instruments.LoudnessAnalyzer;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Measures synthetic clips with LoudnessAnalyzer and checks the levels it
+ * writes to the loudness index against the BS.1770 reference: a full-scale
+ * 1 kHz sine on one channel reads -3.01 LUFS, and on both channels of a
+ * stereo clip 0 LUFS, since the channels are summed. Also checks a mono clip
+ * is measured once, not once per copied channel, that silence gets no gain,
+ * and that the gain never lifts the peak above -1 dBFS.
+ * Exits with a non-zero code on failure.
+ */
+public class LoudnessAnalyzerTest {
+
+    private static final float RATE = 44100f;
+    private static final double TOLERANCE = 0.05; //dB or LU
+    private static final double TARGET = -16;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("loudness");
+        int failures = 0;
+        try {
+            write(dir, "left.wav", 2, sine(2, 1.0, true, false));
+            write(dir, "both.wav", 2, sine(2, 1.0, true, true));
+            write(dir, "mono.wav", 1, sine(1, 1.0, true, false));
+            write(dir, "quiet.wav", 1, sine(1, 0.1, true, false));
+            write(dir, "silent.wav", 2, new short[2 * (int) RATE]);
+            short[] click = sine(1, 0.01, true, false);
+            click[click.length / 2] = Short.MAX_VALUE;
+            write(dir, "click.wav", 1, click);
+
+            LoudnessAnalyzer.main(new String[]{dir.toString(), "--target=" + TARGET});
+            Properties index = new Properties();
+            try (InputStream in = Files.newInputStream(dir.resolve("loudness.properties"))) {
+                index.load(in);
+            }
+
+            failures += expect("full-scale sine on one stereo channel is -3.01 LUFS", index, "left.wav.lufs", -3.01);
+            failures += expect("full-scale sine on both channels is 0 LUFS", index, "both.wav.lufs", 0);
+            failures += expect("full-scale sine peaks at 0 dBFS", index, "both.wav.peakDb", 0);
+            failures += expect("full-scale sine has an RMS of -3.01 dBFS", index, "both.wav.rmsDb", -3.01);
+            failures += expect("gain brings a loud clip down to the target", index, "left.wav.gainDb", TARGET + 3.01);
+            failures += expect("mono sine is measured on one channel, -3.01 LUFS", index, "mono.wav.lufs", -3.01);
+            failures += expect("-20 dBFS mono sine is -23.01 LUFS", index, "quiet.wav.lufs", -23.01);
+            failures += expect("gain lifts a quiet clip to the target", index, "quiet.wav.gainDb", TARGET + 23.01);
+            failures += expect("quiet clip with a full-scale click is only lowered to the -1 dBFS ceiling", index, "click.wav.gainDb", -1);
+            failures += expectText("silent clip has no loudness", index, "silent.wav.lufs", "-Infinity");
+            failures += expect("silent clip gets no gain", index, "silent.wav.gainDb", 0);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+
+        if (failures == 0) {
+            System.out.println("LoudnessAnalyzerTest: ALL PASSED");
+        } else {
+            System.err.println("LoudnessAnalyzerTest: FAILED tests=" + failures);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Two seconds of a 1 kHz sine, interleaved, on the chosen channels
+     *
+     * @param amplitude 1 for full scale
+     */
+    private static short[] sine(int channels, double amplitude, boolean left, boolean right) {
+        int frames = 2 * (int) RATE;
+        short[] samples = new short[frames * channels];
+        for (int f = 0; f < frames; f++) {
+            short value = (short) Math.round(amplitude * Short.MAX_VALUE * Math.sin(2 * Math.PI * 1000 * f / RATE));
+            if (left) {
+                samples[f * channels] = value;
+            }
+            if (right && channels > 1) {
+                samples[f * channels + 1] = value;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Writes 16-bit little-endian PCM as a WAV file
+     */
+    private static void write(Path dir, String name, int channels, short[] samples) throws IOException {
+        byte[] bytes = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            bytes[2 * i] = (byte) samples[i];
+            bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        AudioFormat format = new AudioFormat(RATE, 16, channels, true, false);
+        AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(bytes), format, samples.length / channels);
+        AudioSystem.write(in, AudioFileFormat.Type.WAVE, dir.resolve(name).toFile());
+    }
+
+    private static int expect(String label, Properties index, String key, double expected) {
+        String value = index.getProperty(key);
+        boolean passed = value != null && Math.abs(Double.parseDouble(value) - expected) <= TOLERANCE;
+        return report(label + " (" + key + "=" + value + ")", passed);
+    }
+
+    private static int expectText(String label, Properties index, String key, String expected) {
+        String value = index.getProperty(key);
+        return report(label + " (" + key + "=" + value + ")", expected.equals(value));
+    }
+
+    private static int report(String label, boolean passed) {
+        if (passed) {
+            System.out.println("[PASS] " + label);
+            return 0;
+        }
+        System.err.println("[FAIL] " + label);
+        return 1;
+    }
+}
@@ -0,0 +1,139 @@
+package tests;
+
+import instruments.Drum;
+import instruments.Guitar;
+import instruments.Instrument;
+import instruments.LoudnessIndex;
+import instruments.OfflineRenderer;
+import instruments.Piano;
+import instruments.SoundLibrary;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Renders a short sequence without an audio device and checks every output
+ * sample against the source WAVs, decoded independently through Java Sound
+ * and scaled by each clip's gain from the loudness index.
+ * Run from the project root so resources/sounds is found.
+ * Exits with a non-zero code on failure.
+ */
+public class OfflineRendererTest {
+
+    public static void main(String[] args) throws Exception {
+        if (!new File("resources/sounds").isDirectory()) {
+            System.err.println("OfflineRendererTest: FAILED resources/sounds not found, run from the project root");
+            System.exit(1);
+        }
+        int failures = 0;
+        Instrument drum = new Drum();
+        Instrument piano = new Piano();
+        Instrument guitar = new Guitar();
+
+        OfflineRenderer renderer = new OfflineRenderer()
+                .addAtFrame(0, drum, 0)
+                .addAtFrame(1000, piano, 1) // Piano2.wav is mono
+                .add(0.25, guitar, 2)
+                .addAtFrame(1000, drum, 0); // same clip twice, overlapping itself
+        byte[] rendered = render(renderer);
+
+        int[] expected = new int[(int) renderer.lengthInFrames() * 2];
+        mixInto(expected, drum, 0, 0);
+        mixInto(expected, piano, 1, 1000);
+        mixInto(expected, guitar, 2, 11025);
+        mixInto(expected, drum, 0, 1000);
+
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(new ByteArrayInputStream(rendered))) {
+            AudioFormat format = in.getFormat();
+            failures += expect("output is a 44.1 kHz 16-bit stereo WAV",
+                    format.getSampleRate() == 44100f && format.getSampleSizeInBits() == 16 && format.getChannels() == 2);
+            failures += expect("output length is " + renderer.lengthInFrames() + " frames",
+                    in.getFrameLength() == renderer.lengthInFrames());
+            failures += expect("every sample matches the sum of the clips", firstMismatch(in.readAllBytes(), expected) < 0);
+        }
+
+        failures += expect("rendering twice gives identical output", Arrays.equals(rendered, render(renderer)));
+
+        try {
+            new OfflineRenderer().addAtFrame(0, drum, 99);
+            failures += expect("unknown clip index is rejected", false);
+        } catch (IllegalArgumentException expectedError) {
+            failures += expect("unknown clip index is rejected", true);
+        }
+
+        if (failures == 0) {
+            System.out.println("OfflineRendererTest: ALL PASSED");
+        } else {
+            System.err.println("OfflineRendererTest: FAILED tests=" + failures);
+            System.exit(1);
+        }
+    }
+
+    private static byte[] render(OfflineRenderer renderer) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.render(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes one of an instrument's clips with Java Sound into interleaved
+     * stereo samples, duplicating mono into both channels
+     */
+    private static short[] clip(Instrument instrument, int index) throws Exception {
+        File file = SoundLibrary.clipsFor(instrument.getSoundPath()).get(index);
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file)) {
+            int channels = in.getFormat().getChannels();
+            byte[] bytes = in.readAllBytes();
+            int frames = bytes.length / (2 * channels);
+            short[] stereo = new short[frames * 2];
+            for (int f = 0; f < frames; f++) {
+                for (int c = 0; c < 2; c++) {
+                    int i = (f * channels + Math.min(c, channels - 1)) * 2;
+                    stereo[f * 2 + c] = (short) ((bytes[i] & 0xff) | (bytes[i + 1] << 8));
+                }
+            }
+            return stereo;
+        }
+    }
+
+    private static void mixInto(int[] mix, Instrument instrument, int index, int startFrame) throws Exception {
+        short[] clip = clip(instrument, index);
+        float gain = LoudnessIndex.gainFor(SoundLibrary.clipsFor(instrument.getSoundPath()).get(index));
+        for (int i = 0; i < clip.length; i++) {
+            mix[startFrame * 2 + i] += (int) (clip[i] * gain);
+        }
+    }
+
+    /**
+     * @return the index of the first sample that differs, or -1 if all match
+     */
+    private static int firstMismatch(byte[] pcm, int[] expected) {
+        if (pcm.length != expected.length * 2) {
+            System.err.println("  length " + pcm.length / 2 + " samples, expected " + expected.length);
+            return 0;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            int actual = (short) ((pcm[i * 2] & 0xff) | (pcm[i * 2 + 1] << 8));
+            int want = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, expected[i]));
+            if (actual != want) {
+                System.err.println("  sample " + i + " is " + actual + ", expected " + want);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int expect(String label, boolean passed) {
+        if (passed) {
+            System.out.println("[PASS] " + label);
+            return 0;
+        }
+        System.err.println("[FAIL] " + label);
+        return 1;
+    }
+}
@@ -0,0 +1,138 @@
+package tests;
+
+import instruments.Drum;
+import instruments.Guitar;
+import instruments.Instrument;
+import instruments.OfflineRenderer;
+import instruments.Piano;
+import instruments.StepSequencer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Checks that the step sequencer puts every hit on the exact frame its step
+ * number gives, at 200 BPM in sixteenth notes with all three instruments,
+ * and that the timing does not drift over many loops. The live path (the
+ * cursor the mixer calls once per 128-frame block) is checked the same way
+ * through StepSequencer.recordLive, which needs no sound device.
+ * Run from the project root so resources/sounds is found.
+ * Exits with a non-zero code on failure.
+ */
+public class StepSequencerTest {
+
+    public static void main(String[] args) throws Exception {
+        if (!new File("resources/sounds").isDirectory()) {
+            System.err.println("StepSequencerTest: FAILED resources/sounds not found, run from the project root");
+            System.exit(1);
+        }
+        int failures = 0;
+        Instrument drum = new Drum();
+        Instrument piano = new Piano();
+        Instrument guitar = new Guitar();
+        String drumSteps = "x...x...x...x...";
+        String pianoSteps = "..x...x...x...x.";
+        String guitarSteps = "xxxx xxxx xxxx xxxx";
+        StepSequencer beat = new StepSequencer(200, 4, 16)
+                .track(drum, 0, drumSteps)
+                .track(piano, 1, pianoSteps)
+                .track(guitar, 2, guitarSteps);
+
+        // 44100 * 60 / (200 * 4) = 3307.5 frames per sixteenth note
+        failures += expect("step 1 starts at frame 3308", beat.frameOfStep(1) == 3308);
+        failures += expect("step 2 starts at frame 6615", beat.frameOfStep(2) == 6615);
+        failures += expect("loop 1000 starts at frame 52920000 with no drift", beat.frameOfStep(16 * 1000) == 52_920_000L);
+
+        int loops = 4;
+        long offset = 500;
+        OfflineRenderer expected = new OfflineRenderer();
+        for (int loop = 0; loop < loops; loop++) {
+            for (int i = 0; i < 16; i++) {
+                long frame = offset + Math.round((loop * 16 + i) * 3307.5);
+                if (drumSteps.charAt(i) == 'x') {
+                    expected.addAtFrame(frame, drum, 0);
+                }
+                if (pianoSteps.charAt(i) == 'x') {
+                    expected.addAtFrame(frame, piano, 1);
+                }
+                expected.addAtFrame(frame, guitar, 2);
+            }
+        }
+        byte[] sequenced = render(beat.renderTo(new OfflineRenderer(), offset, loops));
+        failures += expect("sequenced hits match hits placed by hand, sample for sample", Arrays.equals(sequenced, render(expected)));
+
+        // Live path: the pattern starts on the first block boundary at or after
+        // startFrame, and every hit must land on origin + its step's frame
+        failures += expect("live hits at 200 BPM start on block 512, not frame 500, and match exactly",
+                liveMatches(beat, 200, 500, 512, loops, drum, piano, guitar, drumSteps, pianoSteps));
+        StepSequencer fast = new StepSequencer(230, 4, 16)
+                .track(drum, 0, drumSteps)
+                .track(piano, 1, pianoSteps)
+                .track(guitar, 2, guitarSteps);
+        // 2876.09 frames per step, so hits fall mid-block and ring across blocks
+        failures += expect("live hits at 230 BPM round to the nearest frame from block 0",
+                liveMatches(fast, 230, 0, 0, 3, drum, piano, guitar, drumSteps, pianoSteps));
+        StepSequencer aligned = new StepSequencer(206.71875, 4, 16)
+                .track(drum, 0, drumSteps)
+                .track(piano, 1, pianoSteps)
+                .track(guitar, 2, guitarSteps);
+        // Exactly 3200 frames (25 blocks) per step, so every hit starts on a block boundary
+        failures += expect("live hits that start exactly on a block boundary land on their frame",
+                liveMatches(aligned, 206.71875, 384, 384, 2, drum, piano, guitar, drumSteps, pianoSteps));
+
+        try {
+            beat.track(drum, 0, "x...x...");
+            failures += expect("a pattern of the wrong length is rejected", false);
+        } catch (IllegalArgumentException expectedError) {
+            failures += expect("a pattern of the wrong length is rejected", true);
+        }
+
+        if (failures == 0) {
+            System.out.println("StepSequencerTest: ALL PASSED");
+        } else {
+            System.err.println("StepSequencerTest: FAILED tests=" + failures);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Records the live path and compares it with the same hits placed by hand
+     * at origin + round(step * frames per step)
+     */
+    private static boolean liveMatches(StepSequencer sequencer, double bpm, long startFrame, long origin, int loops,
+                                       Instrument drum, Instrument piano, Instrument guitar,
+                                       String drumSteps, String pianoSteps) throws Exception {
+        double framesPerStep = 44100 * 60 / (bpm * 4);
+        OfflineRenderer expected = new OfflineRenderer();
+        for (int step = 0; step < loops * 16; step++) {
+            long frame = origin + Math.round(step * framesPerStep);
+            int i = step % 16;
+            if (drumSteps.charAt(i) == 'x') {
+                expected.addAtFrame(frame, drum, 0);
+            }
+            if (pianoSteps.charAt(i) == 'x') {
+                expected.addAtFrame(frame, piano, 1);
+            }
+            expected.addAtFrame(frame, guitar, 2);
+        }
+        ByteArrayOutputStream live = new ByteArrayOutputStream();
+        sequencer.recordLive(live, startFrame, loops);
+        return Arrays.equals(live.toByteArray(), render(expected));
+    }
+
+    private static byte[] render(OfflineRenderer renderer) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.render(out);
+        return out.toByteArray();
+    }
+
+    private static int expect(String label, boolean passed) {
+        if (passed) {
+            System.out.println("[PASS] " + label);
+            return 0;
+        }
+        System.err.println("[FAIL] " + label);
+        return 1;
+    }
+}